@@ -0,0 +1,60 @@
+package com.example.activities;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.Button;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.example.services.LocationMetrics;
+import com.example.zenly.R;
+
+/**
+ * Debug screen showing the metrics of the location pipeline, refreshed every second.
+ * The JSON report can be shared to attach it to a bug or to compare sampling settings.
+ */
+public class LocationMetricsActivity extends AppCompatActivity {
+    private static final long REFRESH_INTERVAL = 1000; // in milliseconds
+    private final LocationMetrics metrics = LocationMetrics.getInstance();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private TextView metricsTextView;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            metricsTextView.setText(metrics.toText());
+            handler.postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_location_metrics);
+
+        metricsTextView = findViewById(R.id.tvMetrics);
+        Button shareButton = findViewById(R.id.shareMetricsButton);
+        shareButton.setOnClickListener(v -> {
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.setType("application/json");
+            intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.location_metrics));
+            intent.putExtra(Intent.EXTRA_TEXT, metrics.toJson());
+            startActivity(Intent.createChooser(intent, getString(R.string.share_metrics)));
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refresh);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refresh);
+    }
+}
@@ -17,14 +17,15 @@ import com.example.fragments.ProfileFragment;
 import com.example.fragments.TopListFragment;
 import com.example.helpers.FirebaseHelper;
 import com.example.managers.DiscussionsManager;
+import com.example.managers.FriendListSync;
 import com.example.managers.FriendManager;
 import com.example.managers.FriendRequestManager;
 import com.example.model.Discussion;
-import com.example.model.Friend;
 import com.example.model.FriendRequest;
 import com.example.zenly.R;
 import com.google.android.material.badge.BadgeDrawable;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
+import com.google.firebase.database.ChildEventListener;
 
 import java.util.List;
 
@@ -38,6 +39,9 @@ public class MainActivity extends AppCompatActivity {
     private final ProfileFragment profileFragment = new ProfileFragment();
     private final TopListFragment topListFragment = new TopListFragment();
     private final FirebaseHelper firebaseHelper = FirebaseHelper.getInstance();
+    // child listener of the friend list, and the user it is attached to
+    private ChildEventListener friendListListener;
+    private String friendsUserId;
 
 
     private BadgeDrawable friendRequestsBadge;
@@ -84,22 +88,31 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        // listen for friend list
-        firebaseHelper.listenForFriendsList(new FirebaseHelper.FriendsListCallback() {
-            @Override
-            public void onFriendsListReceived(List<Friend> friendsList) {
-                FriendManager.getInstance().setFriendsList(friendsList);
-                Log.d("FriendsListUpdate", "Updated friends list:");
-                for (Friend friend : friendsList) {
-                    Log.d("FriendsListUpdate", "Friend: " + friend.toString());
+        // listen for friend list changes, only the added friends are read
+        FriendManager.getInstance().clear();
+        FriendListSync friendListSync = new FriendListSync(firebaseHelper.getProfileLoader(),
+                firebaseHelper.getProfileLoader().getScheduler(), FriendManager.getInstance());
+        friendsUserId = firebaseHelper.getCurrentUserId();
+        if (friendsUserId != null) {
+            friendListListener = firebaseHelper.listenForFriendChanges(friendsUserId, new FirebaseHelper.FriendChangeCallback() {
+                @Override
+                public void onFriendAdded(String friendId) {
+                    Log.d("FriendsListUpdate", "Friend added: " + friendId);
+                    friendListSync.onFriendAdded(friendId);
                 }
-            }
 
-            @Override
-            public void onFailed(Exception e) {
-                Toast.makeText(MainActivity.this, "can not get the friend list: " + e.getMessage(), Toast.LENGTH_LONG).show();
-            }
-        });
+                @Override
+                public void onFriendRemoved(String friendId) {
+                    Log.d("FriendsListUpdate", "Friend removed: " + friendId);
+                    friendListSync.onFriendRemoved(friendId);
+                }
+
+                @Override
+                public void onFailed(Exception e) {
+                    Toast.makeText(MainActivity.this, "can not get the friend list: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                }
+            });
+        }
 
         firebaseHelper.fetchUserDiscussions(new FirebaseHelper.DiscussionListCallback() {
             @Override
@@ -183,6 +196,15 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (friendListListener != null) {
+            firebaseHelper.removeFriendChangeListener(friendsUserId, friendListListener);
+            friendListListener = null;
+        }
+    }
+
     @Override
     public void onBackPressed() {
         // get the current fragment
@@ -9,15 +9,17 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.example.model.User;
+import com.example.model.StepBoardEntry;
 import com.example.zenly.R;
 
 import java.util.List;
 
 public class TopListAdapter extends RecyclerView.Adapter<TopListAdapter.MyViewHolder> {
+    // payload of rows whose rank changed but not their content
+    private static final Object PAYLOAD_RANK = new Object();
 private Context context;
-private List<User> list=null;
-    public TopListAdapter(Context context,List<User> list) {
+private List<StepBoardEntry> list=null;
+    public TopListAdapter(Context context,List<StepBoardEntry> list) {
         this.context=context;
         this.list=list;
     }
@@ -30,13 +32,73 @@ private List<User> list=null;
 
     @Override
     public void onBindViewHolder(@NonNull MyViewHolder holder, int position) {
-        User user = list.get(position);
+        StepBoardEntry user = list.get(position);
         holder.tvIndex.setText(position+1+"");
         holder.tvStep.setText(user.getStep().toString());
         holder.tvUserName.setText(user
                 .getUsername());
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull MyViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && allRankPayloads(payloads)) {
+            // only the rank number moved, the name and steps are already bound
+            holder.tvIndex.setText(position+1+"");
+            return;
+        }
+        onBindViewHolder(holder, position);
+    }
+
+    private static boolean allRankPayloads(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_RANK) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A row was inserted at its rank, the rows below it move down one rank
+     */
+    public void onRowInserted(int position) {
+        notifyItemInserted(position);
+        notifyRanksChanged(position + 1, list.size() - 1);
+    }
+
+    /**
+     * A row was removed, the rows below it move up one rank
+     */
+    public void onRowRemoved(int position) {
+        notifyItemRemoved(position);
+        notifyRanksChanged(position, list.size() - 1);
+    }
+
+    /**
+     * A row changed rank, the rows in between shift by one rank
+     */
+    public void onRowMoved(int fromPosition, int toPosition) {
+        notifyItemMoved(fromPosition, toPosition);
+        if (fromPosition < toPosition) {
+            notifyRanksChanged(fromPosition, toPosition - 1);
+        } else {
+            notifyRanksChanged(toPosition + 1, fromPosition);
+        }
+    }
+
+    /**
+     * The content of a row changed (steps or name)
+     */
+    public void onRowChanged(int position) {
+        notifyItemChanged(position);
+    }
+
+    private void notifyRanksChanged(int fromPosition, int toPosition) {
+        if (fromPosition <= toPosition) {
+            notifyItemRangeChanged(fromPosition, toPosition - fromPosition + 1, PAYLOAD_RANK);
+        }
+    }
+
     @Override
     public int getItemCount() {
         return list.size();
@@ -1,6 +1,8 @@
 package com.example.fragments;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
@@ -25,10 +27,12 @@ import com.example.adapters.FriendRequestsAdapter;
 import com.example.adapters.FriendsAdapter;
 import com.example.adapters.UsersAdapter;
 import com.example.helpers.FirebaseHelper;
+import com.example.managers.FriendIndex;
 import com.example.managers.FriendManager;
 import com.example.managers.FriendRequestManager;
 import com.example.model.Friend;
 import com.example.model.User;
+import com.example.util.SearchPipeline;
 import com.example.zenly.R;
 import com.google.android.material.badge.BadgeDrawable;
 import com.google.android.material.badge.BadgeUtils;
@@ -40,6 +44,8 @@ import com.google.android.material.textfield.TextInputEditText;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 @OptIn(markerClass = ExperimentalBadgeUtils.class)
 public class FriendsFragment extends Fragment implements FriendsAdapter.OnFriendClickListener {
@@ -53,6 +59,15 @@ public class FriendsFragment extends Fragment implements FriendsAdapter.OnFriend
 
     private BadgeDrawable badgeDrawable;
 
+    // time without a keystroke before a search runs (in milliseconds), longer for the remote search
+    private static final long FRIEND_SEARCH_DEBOUNCE = 150;
+    private static final long USER_SEARCH_DEBOUNCE = 400;
+    // runs the friend and user searches off the main thread
+    private ScheduledExecutorService searchWorker;
+    private SearchPipeline<Friend> friendSearch;
+    private SearchPipeline<User> userSearch;
+    // the user pressed search, tell them when nobody was found
+    private boolean announceNoUsers;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -92,6 +107,42 @@ public class FriendsFragment extends Fragment implements FriendsAdapter.OnFriend
         RecyclerView searchViewRecyclerView = view.findViewById(R.id.reactive_list);
         searchViewRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
         searchViewRecyclerView.setAdapter(searchViewAdapter);
+        searchWorker = Executors.newSingleThreadScheduledExecutor();
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        friendSearch = new SearchPipeline<>(
+                (query, callback) -> callback.onResults(FriendManager.getInstance().searchFriends(query)),
+                FriendIndex::matches, FRIEND_SEARCH_DEBOUNCE, searchWorker, mainHandler::post,
+                new SearchPipeline.Listener<Friend>() {
+                    @Override
+                    public void onResults(String query, List<Friend> results) {
+                        // Update the RecyclerView adapter
+                        searchViewAdapter.setFriendList(results);
+                    }
+
+                    @Override
+                    public void onFailed(String query, Exception e) {
+                        Log.w("FriendsFragment", "friend search failed: " + query, e);
+                    }
+                });
+        userSearch = new SearchPipeline<>(this::searchUsers,
+                (user, query) -> user.getUsername() != null && user.getUsername().startsWith(query),
+                USER_SEARCH_DEBOUNCE, searchWorker, mainHandler::post, new SearchPipeline.Listener<User>() {
+                    @Override
+                    public void onResults(String query, List<User> users) {
+                        if (usersAdapter != null) {
+                            usersAdapter.setUsers(users);
+                        }
+                        if (announceNoUsers && users.isEmpty() && !query.isEmpty()) {
+                            Toast.makeText(getContext(), "No users found", Toast.LENGTH_SHORT).show();
+                        }
+                        announceNoUsers = false;
+                    }
+
+                    @Override
+                    public void onFailed(String query, Exception e) {
+                        Toast.makeText(getContext(), "Error occurred: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                    }
+                });
         searchView.getEditText().addTextChangedListener(new TextWatcher() {
             @Override
             public void beforeTextChanged(CharSequence charSequence, int i, int i1, int i2) {
@@ -103,10 +154,8 @@ public class FriendsFragment extends Fragment implements FriendsAdapter.OnFriend
 
             @Override
             public void afterTextChanged(Editable editable) {
-                List<Friend> searchResults = FriendManager.getInstance().searchFriends(editable.toString());
-
-                // Update the RecyclerView adapter
-                searchViewAdapter.setFriendList(searchResults);
+                // searched once the user stops typing, the results come back on the main thread
+                friendSearch.submit(editable.toString());
             }
         });
 
@@ -117,9 +166,23 @@ public class FriendsFragment extends Fragment implements FriendsAdapter.OnFriend
         friendListView.setAdapter(friendsAdapter);
         FriendManager.getInstance().getFriendsList().observe(getViewLifecycleOwner(), friendList -> {
             friendsAdapter.setFriendList(friendList);
+            // results of the old list cannot be narrowed anymore, and those on screen are outdated
+            friendSearch.invalidate();
+            String query = searchView.getText().toString();
+            if (!query.trim().isEmpty()) {
+                friendSearch.submit(query);
+            }
         });
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        friendSearch.cancel();
+        userSearch.cancel();
+        searchWorker.shutdownNow();
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -159,6 +222,22 @@ public class FriendsFragment extends Fragment implements FriendsAdapter.OnFriend
             return handled;
         });
 
+        // search as the user types, pressing search runs the query right away
+        searchField.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence charSequence, int i, int i1, int i2) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence charSequence, int i, int i1, int i2) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable editable) {
+                userSearch.submit(editable.toString());
+            }
+        });
+
         RecyclerView usersList = dialogView.findViewById(R.id.users_list);
         usersAdapter = new UsersAdapter(new ArrayList<>());
         usersList.setLayoutManager(new LinearLayoutManager(getContext()));
@@ -171,6 +250,8 @@ public class FriendsFragment extends Fragment implements FriendsAdapter.OnFriend
 
 
         AlertDialog dialog = builder.create();
+        // results still on their way are not shown in a closed dialog
+        dialog.setOnDismissListener(dialogInterface -> userSearch.cancel());
 
         dialog.setOnShowListener(dialogInterface -> {
             Button searchButton = dialog.getButton(AlertDialog.BUTTON_POSITIVE);
@@ -184,21 +265,26 @@ public class FriendsFragment extends Fragment implements FriendsAdapter.OnFriend
     }
 
     private void performUserSearch(String searchText) {
+        announceNoUsers = true;
+        userSearch.submitNow(searchText);
+    }
 
-        firebaseHelper.searchUsers(searchText, new FirebaseHelper.UserSearchCallback() {
+    // source of the user search, called on the search worker
+    private void searchUsers(String query, SearchPipeline.Callback<User> callback) {
+        firebaseHelper.searchUsers(query, new FirebaseHelper.UserSearchCallback() {
             @Override
             public void onUserFound(List<User> users) {
-                usersAdapter.setUsers(users);
+                callback.onResults(users);
             }
 
             @Override
             public void onUserNotFound() {
-                Toast.makeText(getContext(), "No users found", Toast.LENGTH_SHORT).show();
+                callback.onResults(new ArrayList<>());
             }
 
             @Override
             public void onError(Exception e) {
-                Toast.makeText(getContext(), "Error occurred: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                callback.onFailed(e);
             }
         });
     }
@@ -14,8 +14,10 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.activities.LoginActivity;
-import com.example.managers.FriendManager;
-import com.example.model.Friend;
+import com.example.helpers.LocationCodec;
+import com.example.helpers.MarkerAnimator;
+import com.example.managers.LocationSubscriptionManager;
+import com.example.model.LocationData;
 import com.example.zenly.R;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
@@ -35,18 +37,17 @@ import com.google.firebase.database.FirebaseDatabase;
 import com.google.android.gms.maps.model.Marker;
 
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
 
 public class MapFragment extends Fragment {
     private final String TAG = "MapFragmentLog";
     // GoogleMap object
     private GoogleMap myMap;
-    // ValueEventListener to listen for changes in the database
-    private ValueEventListener myValueEventListener;
+    // keeps one location listener per friend, following the friend list
+    private LocationSubscriptionManager subscriptionManager;
     // use a HashMap to store the markers of all users
     private final HashMap<String, Marker> userMarkers = new HashMap<>();
+    // moves the markers between location updates from the last speed and bearing
+    private final MarkerAnimator markerAnimator = new MarkerAnimator();
     // use a HashMap to store the usernames of all users to avoid querying the database multiple times
     private final HashMap<String, String> usernameCache = new HashMap<>();
     // default zoom level of the map when the app is first loaded (street level)
@@ -62,7 +63,6 @@ public class MapFragment extends Fragment {
     private boolean isFirstLoad = true;
     // Firebase user
     private FirebaseUser currentUser = null;
-    private FriendManager friendManager;
 
     // callback method for when the map is ready
     private final OnMapReadyCallback callback = new OnMapReadyCallback() {
@@ -129,7 +129,6 @@ public class MapFragment extends Fragment {
         DatabaseReference myDatabase = FirebaseDatabase.getInstance().getReference();
         FirebaseAuth myAuth = FirebaseAuth.getInstance();
         currentUser = myAuth.getCurrentUser();
-        friendManager = FriendManager.getInstance();
 
         if (currentUser != null) {  // check if the user is logged in
             // get the reference to the locations node
@@ -152,48 +151,41 @@ public class MapFragment extends Fragment {
     }
 
     /**
-     * Start the repeating task to listen for changes in the database
+     * Start listening for location changes of the current user and their friends
      */
     private void startRepeatingTask() {
         Log.d(TAG, "startRepeatingTask: start repeating task");
-        myValueEventListener = new ValueEventListener() {
-            @Override
-            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
-                // get the list of friends of the current user
-                List<Friend> currentFriends = friendManager.getFriendsList().getValue();
-                // use a HashSet to store the user IDs of all friends
-                Set<String> friendIds = new HashSet<>();
-
-                if (currentFriends != null) {
-                    for (Friend friend : currentFriends) {
-                        // add the user ID of each friend to the HashSet
-                        friendIds.add(friend.getUserId());
+        if (locationsRef == null) {
+            return;
+        }
+        // one listener per tracked user instead of one listener on the whole locations node
+        subscriptionManager = new LocationSubscriptionManager(locationsRef, currentUser.getUid(),
+                new LocationSubscriptionManager.LocationUpdateCallback() {
+                    @Override
+                    public void onLocationChanged(@NonNull DataSnapshot userSnapshot) {
+                        handleNewLocation(userSnapshot);
                     }
-                }
 
-                for (DataSnapshot userSnapshot : dataSnapshot.getChildren()) {
-                    String userId = userSnapshot.getKey();
-                    if (userId != null) {
-                        if (currentUser != null && userId.equals(currentUser.getUid())) {
-                            handleNewLocation(userSnapshot);  // update the current user's location
-                        } else if (friendIds.contains(userId)) {
-                            handleNewLocation(userSnapshot);  // update the location of friends
+                    @Override
+                    public void onSubscriptionRemoved(@NonNull String userId) {
+                        // the user is no longer a friend, remove their marker
+                        Marker marker = userMarkers.remove(userId);
+                        markerAnimator.remove(userId);
+                        if (marker != null) {
+                            marker.remove();
                         }
                     }
-                }
-            }
 
-            @Override
-            public void onCancelled(@NonNull DatabaseError databaseError) {
-                // Log error message
-                Log.d(TAG, "onCancelled: " + databaseError.getMessage());
-                Toast.makeText(getContext(), "Error fetching data", Toast.LENGTH_SHORT).show();
-            }
-        };
-        // Add the ValueEventListener
-        if (locationsRef != null) {
-            locationsRef.addValueEventListener(myValueEventListener);
-        }
+                    @Override
+                    public void onFailed(Exception e) {
+                        // Log error message
+                        Log.d(TAG, "onCancelled: " + e.getMessage());
+                        Toast.makeText(getContext(), "Error fetching data", Toast.LENGTH_SHORT).show();
+                    }
+                });
+        subscriptionManager.start(getViewLifecycleOwner());
+        // the map is showing, ask friends to upload at the live rate
+        subscriptionManager.setWatching(isResumed());
     }
 
 
@@ -206,20 +198,20 @@ public class MapFragment extends Fragment {
         // get the user ID
         String userId = userSnapshot.getKey();
 
-        // get the user's location
-        Double latitudeValue = userSnapshot.child("latitude").getValue(Double.class);
-        double latitude = (latitudeValue != null) ? latitudeValue : 0.0;
-        Double longitudeValue = userSnapshot.child("longitude").getValue(Double.class);
-        double longitude = (longitudeValue != null) ? longitudeValue : 0.0;
-        Float speedValue = userSnapshot.child("speed").getValue(Float.class);
-        float speed = (speedValue != null) ? speedValue : 0.0f;
-        Long timestampValue = userSnapshot.child("timestamp").getValue(Long.class);
-        long timestamp = (timestampValue != null) ? timestampValue : 0L;
-        Integer batteryLevelValue = userSnapshot.child("batteryLevel").getValue(Integer.class);
-        int batteryLevel = (batteryLevelValue != null) ? batteryLevelValue : 0;
+        // get the user's location, written either as a LocationData object or in the compact format
+        LocationData locationData = LocationCodec.decodeValue(userSnapshot.getValue());
+        if (locationData == null) {
+            Log.d(TAG, "handleNewLocation: unreadable location for " + userId);
+            return;
+        }
+        double latitude = locationData.getLatitude();
+        double longitude = locationData.getLongitude();
+        float speed = locationData.getSpeed();
+        long timestamp = locationData.getTimestamp();
+        int batteryLevel = locationData.getBatteryLevel();
         // last update time of the user's location
         long currentTime = System.currentTimeMillis();
-        long timeDifference = currentTime - timestamp;
+        long timeDifference = Math.max(0, currentTime - timestamp);
         int lastUpdateTime = (int) (timeDifference / 1000 / 60); // convert to minutes
 
         // create a LatLng object from the latitude and longitude values
@@ -237,7 +229,7 @@ public class MapFragment extends Fragment {
                     usernameCache.put(userId, username);
                 }
                 // update the marker on the map after getting the username
-                updateMapMarker(userId, newLocation, DEFAULT_ZOOM_LEVEL, username, speed, batteryLevel,lastUpdateTime);
+                updateMapMarker(userId, newLocation, DEFAULT_ZOOM_LEVEL, username, speed, batteryLevel, lastUpdateTime, timeDifference);
             }
 
             @Override
@@ -255,25 +247,28 @@ public class MapFragment extends Fragment {
      * @param username username of the user
      * @param speed speed of the user
      * @param batteryLevel battery level of the user's device
+     * @param fixAge how old the location already is (in milliseconds)
      */
-    private void updateMapMarker(String userId, LatLng newLocation, float zoomLevel, String username, float speed, int batteryLevel, int lastUpdateTime) {
-        speed = Math.round(speed * 100.0f) / 100.0f; // round to 2 decimal places
+    private void updateMapMarker(String userId, LatLng newLocation, float zoomLevel, String username, float speed, int batteryLevel, int lastUpdateTime, long fixAge) {
+        float displaySpeed = Math.round(speed * 100.0f) / 100.0f; // round to 2 decimal places
         if (myMap != null) {
             Marker existingMarker = userMarkers.get(userId); // get the existing marker
             if (existingMarker != null) {
-                existingMarker.setPosition(newLocation); // update the existing marker's position
+                // the animator moves the existing marker toward the new position
+                markerAnimator.onLocationUpdate(userId, existingMarker, newLocation.latitude, newLocation.longitude, speed, fixAge);
                 existingMarker.setTitle("User: " + username);
-                existingMarker.setSnippet("Speed: " + speed +" m/s" + "\n"
+                existingMarker.setSnippet("Speed: " + displaySpeed + " m/s" + "\n"
                         + "Battery: " + batteryLevel + "%" + "\n"
                         + "Last Update: " + formatUpdateTime(lastUpdateTime));
             } else {
                 Marker newMarker = myMap.addMarker(new MarkerOptions()
                         .position(newLocation)
                         .title("User: " + username)
-                        .snippet("Speed: " + speed + " m/s" + "\n"
+                        .snippet("Speed: " + displaySpeed + " m/s" + "\n"
                                 + "Battery: " + batteryLevel + "%" + "\n"
                                 + "Last Update: " + formatUpdateTime(lastUpdateTime)));
                 userMarkers.put(userId, newMarker);
+                markerAnimator.onLocationUpdate(userId, newMarker, newLocation.latitude, newLocation.longitude, speed, fixAge);
             }
             if (currentUser != null && userId.equals(currentUser.getUid()) && isFirstLoad) {
                 myMap.moveCamera(CameraUpdateFactory.newLatLngZoom(newLocation, zoomLevel));
@@ -298,14 +293,31 @@ public class MapFragment extends Fragment {
         // start the repeating task again when the app is resumed
         // user switches back to the app
         isFirstLoad = true;
+        markerAnimator.start();
+        if (subscriptionManager != null) {
+            subscriptionManager.setWatching(true);
+        }
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        markerAnimator.stop();
+        // nobody is looking at the map anymore, friends can go back to the background rate
+        if (subscriptionManager != null) {
+            subscriptionManager.setWatching(false);
+        }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        // remove the ValueEventListener when the map fragment is destroyed
-        if (myValueEventListener != null && locationsRef != null) {
-            locationsRef.removeEventListener(myValueEventListener);
+        // remove the location listeners when the map fragment is destroyed
+        if (subscriptionManager != null) {
+            // the map is gone, markers do not need to be removed one by one
+            userMarkers.clear();
+            markerAnimator.clear();
+            subscriptionManager.stop();
         }
     }
 
@@ -3,6 +3,7 @@ package com.example.fragments;
 import android.app.AlertDialog;
 import android.app.DatePickerDialog;
 import android.content.DialogInterface;
+import android.content.pm.ApplicationInfo;
 import android.net.Uri;
 import android.os.Bundle;
 
@@ -27,6 +28,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.bumptech.glide.Glide;
+import com.example.activities.LocationMetricsActivity;
 import com.example.activities.WelcomeActivity;
 import com.example.helpers.CameraHelper;
 import com.example.helpers.FirebaseHelper;
@@ -147,10 +149,20 @@ public class ProfileFragment extends Fragment {
         });
         tvStep.append(StepUtil.getTodayStep(getContext()) + "");
 
+        // debug builds only: long press on the username opens the location metrics screen
+        if ((requireContext().getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            usernameTextView.setOnLongClickListener(v -> {
+                startActivity(new Intent(getActivity(), LocationMetricsActivity.class));
+                return true;
+            });
+        }
+
         logoutButton.setOnClickListener(v -> {
             // Stop location service
             Intent serviceIntent = new Intent(getActivity(), LocationService.class);
             requireActivity().stopService(serviceIntent);
+            // leave the geo index while still signed in, the service stops after the sign out
+            firebaseHelper.removeFromGeoIndex();
 
             // Sign out from Firebase Auth
             mAuth.signOut();
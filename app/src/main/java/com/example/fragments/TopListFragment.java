@@ -1,7 +1,6 @@
 package com.example.fragments;
 
 import android.os.Bundle;
-import android.os.Handler;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
@@ -30,6 +29,7 @@ import com.example.adapters.UsersAdapter;
 import com.example.helpers.FirebaseHelper;
 import com.example.managers.FriendManager;
 import com.example.managers.FriendRequestManager;
+import com.example.managers.LeaderboardLoader;
 import com.example.model.Friend;
 import com.example.model.User;
 import com.example.zenly.R;
@@ -40,30 +40,54 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.search.SearchBar;
 import com.google.android.material.search.SearchView;
 import com.google.android.material.textfield.TextInputEditText;
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 
 public class TopListFragment extends Fragment {
     private TopListAdapter topListAdapter;
-    private List<User> list = new ArrayList<>();
-    private final FirebaseAuth mAuth = FirebaseAuth.getInstance();
-
-    private FirebaseHelper firebaseHelper = FirebaseHelper.getInstance();
     private SwipeRefreshLayout refreshLayout;
+    // keeps the friends ranked as their steps change, the adapter shows its ranking
+    private final LeaderboardLoader leaderboardLoader = new LeaderboardLoader(LeaderboardLoader.DEFAULT_TIMEOUT,
+            new LeaderboardLoader.Listener() {
+                @Override
+                public void onInserted(int position) {
+                    topListAdapter.onRowInserted(position);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    topListAdapter.onRowMoved(fromPosition, toPosition);
+                }
+
+                @Override
+                public void onChanged(int position) {
+                    topListAdapter.onRowChanged(position);
+                }
+
+                @Override
+                public void onRemoved(int position) {
+                    topListAdapter.onRowRemoved(position);
+                }
+
+                @Override
+                public void onComplete(boolean timedOut, int failed) {
+                    refreshLayout.setRefreshing(false);
+                    if (timedOut || failed > 0) {
+                        Log.d("TAG", "Leaderboard incomplete, timed out: " + timedOut + ", failed: " + failed);
+                    }
+                }
+            });
 
     @Override
-    public void onResume() {
-        super.onResume();
-        reload();
+    public void onStart() {
+        super.onStart();
+        // the board is live while it is visible, only the first load shows the progress
+        refreshLayout.setRefreshing(true);
+        leaderboardLoader.start();
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        leaderboardLoader.stop();
     }
 
     @Override
@@ -73,73 +97,11 @@ public class TopListFragment extends Fragment {
         View inflate = inflater.inflate(R.layout.fragment_top_list, container, false);
         RecyclerView recyclerView = inflate.findViewById(R.id.rv_list);
         refreshLayout = inflate.findViewById(R.id.refresh_layout);
-        refreshLayout.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
-            @Override
-            public void onRefresh() {
-
-                reload();
-            }
-        });
+        // rows update as soon as a friend's steps change, there is nothing to pull
+        refreshLayout.setEnabled(false);
         recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
-        topListAdapter = new TopListAdapter(getContext(), list);
+        topListAdapter = new TopListAdapter(getContext(), leaderboardLoader.getRanking());
         recyclerView.setAdapter(topListAdapter);
         return inflate;
     }
-
-    private void reload() {
-        String userId = Objects.requireNonNull(mAuth.getCurrentUser()).getUid();
-        DatabaseReference databaseReference = FirebaseDatabase.getInstance().getReference("users");
-        databaseReference.child(userId).addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
-                User user = dataSnapshot.getValue(User.class);
-                refreshLayout.setRefreshing(false);
-                list.clear();
-                if (user != null) {
-                    Map<String, String> friends = user.getFriends();
-                    if (friends != null) {
-                        for (String s : friends.keySet()) {
-                            firebaseHelper.getUserProfile(friends.get(s), new FirebaseHelper.UserProfileCallback() {
-                                @Override
-                                public void onProfileReceived(User user) {
-                                    list.add(user);
-                                }
-
-                                @Override
-                                public void onFailed(Exception e) {
-
-                                }
-                            });
-                        }
-                    }
-                }
-               new Handler().postDelayed(new Runnable() {
-                   @Override
-                   public void run() {
-                       // Iterate over the list of users
-                       for (int i = 0; i < list.size() - 1; i++) {
-                           // Perform a bubble sort pass on the list to order the users by steps in descending order
-                           for (int j = 0; j < list.size() - i - 1; j++) {
-                               // Compare adjacent users
-                               if (list.get(j).getStep() < list.get(j + 1).getStep()) {
-                                   // If the current user has fewer steps than the next user, swap them
-                                   User temp = list.get(j);
-                                   list.set(j, list.get(j + 1));
-                                   list.set(j + 1, temp);
-                               }
-                           }
-                       }
-
-
-                       topListAdapter.notifyDataSetChanged();
-                   }
-               },2000);
-            }
-
-            @Override
-            public void onCancelled(@NonNull DatabaseError databaseError) {
-                Log.d("TAG", "Get username failed: " + databaseError.getMessage());
-            }
-        });
-    }
 }
@@ -1,5 +1,7 @@
 package com.example.helpers;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -10,22 +12,31 @@ import com.example.model.Friend;
 import com.example.model.FriendRequest;
 import com.example.model.LocationData;
 import com.example.model.Message;
+import com.example.model.StepBoardEntry;
 import com.example.model.User;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.Query;
+import com.google.firebase.database.ServerValue;
 import com.google.firebase.database.ValueEventListener;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -73,16 +84,56 @@ public class FirebaseHelper implements Serializable {
         void onFailure(String errorMessage);
     }
 
-    public interface FriendsListCallback {
-        void onFriendsListReceived(List<Friend> friendsList);
+    public interface DeletionCallback {
+        void onSuccess();
 
-        void onFailed(Exception e);
+        void onFailure(String errorMessage);
     }
 
-    public interface DeletionCallback {
+    public interface LocationUploadCallback {
+        void onSuccess(long bytesSent);
+
+        void onFailure(Exception e);
+    }
+
+    public interface ConnectionStateCallback {
+        void onConnectionStateChanged(boolean connected);
+    }
+
+    public interface WatcherCountCallback {
+        void onWatcherCountChanged(long watcherCount);
+    }
+
+    public interface StepHistoryUploadCallback {
         void onSuccess();
 
-        void onFailure(String errorMessage);
+        void onFailure(Exception e);
+    }
+
+    public interface FriendIdsCallback {
+        void onFriendIdsReceived(Collection<String> friendIds);
+
+        void onFailed(Exception e);
+    }
+
+    public interface FriendChangeCallback {
+        void onFriendAdded(String friendId);
+
+        void onFriendRemoved(String friendId);
+
+        void onFailed(Exception e);
+    }
+
+    public interface StepBoardCallback {
+        void onEntryReceived(StepBoardEntry entry);
+
+        void onFailed(Exception e);
+    }
+
+    public interface NearbyFriendsCallback {
+        void onNearbyFriendsReceived(Map<String, LocationData> friendLocations);
+
+        void onFailed(Exception e);
     }
 
     // Singleton pattern
@@ -99,9 +150,43 @@ public class FirebaseHelper implements Serializable {
     private final DatabaseReference friendRequestsRef;
 
     private final DatabaseReference discussionsRef;
+    // Firebase Realtime Database reference to the watchers node (watchers/{trackedUid}/{watcherUid})
+    private final DatabaseReference watchersRef;
+    // Firebase Realtime Database reference to the geohash index (geo/{cell}/{uid})
+    private final DatabaseReference geoRef;
+    // Firebase Realtime Database reference to the cell each user is indexed under (geoCells/{uid})
+    private final DatabaseReference geoCellsRef;
+    // Firebase Realtime Database reference to the leaderboard projection (stepBoard/{uid} = {username, step, updatedAt})
+    private final DatabaseReference stepBoardRef;
 
     private static final String URL = "https://mobile-computing-ef31f-default-rtdb.asia-southeast1.firebasedatabase.app/";
 
+    // write locations in the compact LocationCodec format, only enable once every client can decode it
+    private volatile boolean compactLocationFormat = false;
+
+    // fields of users/{uid} read for a profile, the friends map is left out
+    private static final String[] PROFILE_FIELDS = {"username", "email", "profileImageUrl"};
+
+    // geohash precision of the geo index, a cell is about 1.2 km x 0.6 km
+    private static final int GEO_PRECISION = 6;
+    // maximum number of cells read by a nearby query, about a 2.5 km radius
+    private static final int MAX_GEO_CELLS = 64;
+    // geo index entries older than this are ignored by nearby queries (in milliseconds), a sharing
+    // user uploads at least every 10 minutes
+    private static final long MAX_GEO_AGE = 30 * 60 * 1000;
+    // user whose index cell is known, and the cell the user is currently indexed under
+    private volatile String geoCellOwner;
+    private volatile String indexedGeoCell;
+    // user whose username is known, and the username copied into the user's stepBoard node
+    private volatile String stepBoardOwner;
+    private volatile String stepBoardUsername;
+    // user whose username is being read, null when no read is in flight
+    private volatile String stepBoardUsernameLoading;
+    // reads the profiles of every caller, requests for the same user share one read
+    private final ProfileLoader profileLoader;
+    // usernames of the users whose stepBoard node has none yet, by uid, used on the main thread
+    private final Map<String, String> stepBoardUsernames = new HashMap<>();
+
 
     private FirebaseHelper() {
         if (instance != null) {
@@ -116,6 +201,22 @@ public class FirebaseHelper implements Serializable {
         locationsRef = myDatabase.child("locations");
         friendRequestsRef = myDatabase.child("friendRequests");
         discussionsRef = myDatabase.child("discussions");
+        watchersRef = myDatabase.child("watchers");
+        geoRef = myDatabase.child("geo");
+        geoCellsRef = myDatabase.child("geoCells");
+        stepBoardRef = myDatabase.child("stepBoard");
+        Handler handler = new Handler(Looper.getMainLooper());
+        profileLoader = new ProfileLoader(this::readProfile, new ProfileLoader.Scheduler() {
+            @Override
+            public void postDelayed(Runnable task, long delayMillis) {
+                handler.postDelayed(task, delayMillis);
+            }
+
+            @Override
+            public void cancel(Runnable task) {
+                handler.removeCallbacks(task);
+            }
+        }, ProfileLoader.DEFAULT_MAX_IN_FLIGHT, ProfileLoader.DEFAULT_TIMEOUT);
     }
 
     /**
@@ -144,6 +245,15 @@ public class FirebaseHelper implements Serializable {
         return getInstance();
     }
 
+    /**
+     * Get the loader shared by every caller that reads user profiles
+     *
+     * @return the profile loader
+     */
+    public ProfileLoader getProfileLoader() {
+        return profileLoader;
+    }
+
     /**
      * Get the current user's uid
      *
@@ -167,6 +277,11 @@ public class FirebaseHelper implements Serializable {
             if (task.isSuccessful()) {
                 String userId = Objects.requireNonNull(mAuth.getCurrentUser()).getUid();
                 usersRef.child(userId).setValue(user);
+                Map<String, Object> entry = new HashMap<>();
+                entry.put("username", user.getUsername());
+                entry.put("step", 0);
+                entry.put("updatedAt", ServerValue.TIMESTAMP);
+                stepBoardRef.child(userId).setValue(entry);
                 callback.onSuccess();
             } else {
                 callback.onFailure(Objects.requireNonNull(task.getException()).getMessage());
@@ -200,7 +315,267 @@ public class FirebaseHelper implements Serializable {
         // get current user's uid from firebase authentication
         String uid = Objects.requireNonNull(mAuth.getCurrentUser()).getUid();
         // uid is the key of the location data in the database (locations node)
-        locationsRef.child(uid).setValue(locationData).addOnSuccessListener(unused -> Log.d("uploadLocation", "uploadLocation: success")).addOnFailureListener(e -> Log.w("uploadLocation", "uploadLocation: failure", e));
+        locationsRef.child(uid).setValue(toWireValue(locationData)).addOnSuccessListener(unused -> Log.d("uploadLocation", "uploadLocation: success")).addOnFailureListener(e -> Log.w("uploadLocation", "uploadLocation: failure", e));
+    }
+
+    /**
+     * choose whether location data is written in the compact format or as a LocationData object.
+     * Readers should decode locations with {@link LocationCodec#decodeValue}, which accepts both.
+     *
+     * @param compact true to write the compact format
+     */
+    public void setCompactLocationFormat(boolean compact) {
+        compactLocationFormat = compact;
+    }
+
+    private Object toWireValue(LocationData locationData) {
+        return compactLocationFormat ? LocationCodec.encode(locationData) : locationData;
+    }
+
+    /**
+     * upload the latest location data with a single multi-path write to locations/{uid},
+     * so the write is idempotent if it is repeated after the process was killed.
+     * The fix is also indexed under geo/{cell}/{uid}, the entry in the previous cell is removed.
+     *
+     * @param locationData the location data to be uploaded
+     * @param callback     the callback function
+     */
+    public void uploadLocation(LocationData locationData, final LocationUploadCallback callback) {
+        String uid = getCurrentUserId();
+        if (uid == null) {
+            callback.onFailure(new Exception("User not logged in"));
+            return;
+        }
+        if (!uid.equals(geoCellOwner)) {
+            // read the cell left by a previous run once, so its entry can be removed when the user moves
+            geoCellsRef.child(uid).addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                    indexedGeoCell = dataSnapshot.getValue(String.class);
+                    geoCellOwner = uid;
+                    uploadLocation(locationData, callback);
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError databaseError) {
+                    callback.onFailure(databaseError.toException());
+                }
+            });
+            return;
+        }
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("locations/" + uid, toWireValue(locationData));
+
+        String cell = GeoHash.encode(locationData.getLatitude(), locationData.getLongitude(), GEO_PRECISION);
+        String previousCell = indexedGeoCell;
+        if (previousCell != null && !previousCell.equals(cell)) {
+            updates.put("geo/" + previousCell + "/" + uid, null);
+        }
+        updates.put("geo/" + cell + "/" + uid, toWireValue(locationData));
+        updates.put("geoCells/" + uid, cell);
+
+        long payloadSize = LocationCodec.estimateJsonSize(updates);
+        myDatabase.updateChildren(updates).addOnSuccessListener(unused -> {
+            Log.d("uploadLocation", "uploadLocation: success");
+            indexedGeoCell = cell;
+            callback.onSuccess(payloadSize);
+        }).addOnFailureListener(e -> {
+            Log.w("uploadLocation", "uploadLocation: failure", e);
+            callback.onFailure(e);
+        });
+    }
+
+    /**
+     * find the friends within a radius of a position. Only the geohash cells covering the
+     * circle are read, so the cost depends on the number of users around the position
+     * rather than on the size of the friend list. Entries older than {@link #MAX_GEO_AGE} are
+     * ignored, their user stopped sharing or went offline without removing them.
+     *
+     * @param latitude  latitude of the center (in degrees)
+     * @param longitude longitude of the center (in degrees)
+     * @param radius    radius of the search (in meters)
+     * @param friendIds uids of the friends to look for
+     * @param callback  the callback function, receives the locations keyed by uid, closest first
+     */
+    public void findFriendsNearby(double latitude, double longitude, double radius, Collection<String> friendIds, final NearbyFriendsCallback callback) {
+        List<String> cells = GeoHash.coveringCells(latitude, longitude, radius, GEO_PRECISION, MAX_GEO_CELLS);
+        if (cells == null) {
+            callback.onFailed(new IllegalArgumentException("Radius too large: " + radius + " m"));
+            return;
+        }
+        Set<String> friends = new HashSet<>(friendIds);
+        long oldestTimestamp = System.currentTimeMillis() - MAX_GEO_AGE;
+        Map<String, LocationData> found = new HashMap<>();
+        AtomicInteger completionCount = new AtomicInteger(0);
+        AtomicBoolean failed = new AtomicBoolean(false);
+
+        for (String cell : cells) {
+            geoRef.child(cell).addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                    for (DataSnapshot entry : dataSnapshot.getChildren()) {
+                        if (!friends.contains(entry.getKey())) {
+                            continue;
+                        }
+                        LocationData locationData = LocationCodec.decodeValue(entry.getValue());
+                        if (locationData != null && locationData.getTimestamp() >= oldestTimestamp
+                                && GeoHash.distance(latitude, longitude,
+                                locationData.getLatitude(), locationData.getLongitude()) <= radius) {
+                            found.put(entry.getKey(), locationData);
+                        }
+                    }
+                    if (completionCount.incrementAndGet() == cells.size() && !failed.get()) {
+                        callback.onNearbyFriendsReceived(sortByDistance(found, latitude, longitude));
+                    }
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError databaseError) {
+                    if (failed.compareAndSet(false, true)) {
+                        callback.onFailed(databaseError.toException());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * remove the current user from the geo index, e.g. when location sharing stops or on logout,
+     * so that the user is no longer reported nearby
+     */
+    public void removeFromGeoIndex() {
+        String uid = getCurrentUserId();
+        if (uid == null) {
+            return;
+        }
+        if (!uid.equals(geoCellOwner)) {
+            geoCellsRef.child(uid).addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                    removeFromGeoIndex(uid, dataSnapshot.getValue(String.class));
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError databaseError) {
+                    Log.w(TAG, "removeFromGeoIndex: failed to read the indexed cell", databaseError.toException());
+                }
+            });
+            return;
+        }
+        removeFromGeoIndex(uid, indexedGeoCell);
+    }
+
+    private void removeFromGeoIndex(String uid, String cell) {
+        Map<String, Object> updates = new HashMap<>();
+        if (cell != null) {
+            updates.put("geo/" + cell + "/" + uid, null);
+        }
+        updates.put("geoCells/" + uid, null);
+        geoCellOwner = uid;
+        indexedGeoCell = null;
+        myDatabase.updateChildren(updates).addOnFailureListener(e -> Log.w(TAG, "removeFromGeoIndex: failure", e));
+    }
+
+    private static Map<String, LocationData> sortByDistance(Map<String, LocationData> locations, double latitude, double longitude) {
+        List<Map.Entry<String, LocationData>> entries = new ArrayList<>(locations.entrySet());
+        Collections.sort(entries, (a, b) -> Double.compare(
+                GeoHash.distance(latitude, longitude, a.getValue().getLatitude(), a.getValue().getLongitude()),
+                GeoHash.distance(latitude, longitude, b.getValue().getLatitude(), b.getValue().getLongitude())));
+        Map<String, LocationData> sorted = new LinkedHashMap<>();
+        for (Map.Entry<String, LocationData> entry : entries) {
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        return sorted;
+    }
+
+    /**
+     * listen for the connection state of the realtime database client
+     *
+     * @param callback the callback function, called with the current state and on every change
+     * @return the listener, to be passed to {@link #removeConnectionStateListener}
+     */
+    public ValueEventListener listenForConnectionState(final ConnectionStateCallback callback) {
+        ValueEventListener listener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                Boolean connected = dataSnapshot.getValue(Boolean.class);
+                callback.onConnectionStateChanged(connected != null && connected);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.w(TAG, "listenForConnectionState: cancelled", databaseError.toException());
+            }
+        };
+        FirebaseDatabase.getInstance(URL).getReference(".info/connected").addValueEventListener(listener);
+        return listener;
+    }
+
+    public void removeConnectionStateListener(ValueEventListener listener) {
+        FirebaseDatabase.getInstance(URL).getReference(".info/connected").removeEventListener(listener);
+    }
+
+    /**
+     * register the current user as watching the location of another user.
+     * The registration is removed by the server if the client disconnects.
+     *
+     * @param trackedUserId the uid of the user whose location is shown
+     */
+    public void registerWatcher(String trackedUserId) {
+        String uid = getCurrentUserId();
+        if (uid == null) {
+            return;
+        }
+        DatabaseReference watcherRef = watchersRef.child(trackedUserId).child(uid);
+        watcherRef.onDisconnect().removeValue();
+        watcherRef.setValue(ServerValue.TIMESTAMP);
+    }
+
+    /**
+     * remove the registration made by {@link #registerWatcher}
+     *
+     * @param trackedUserId the uid of the user whose location is no longer shown
+     */
+    public void unregisterWatcher(String trackedUserId) {
+        String uid = getCurrentUserId();
+        if (uid == null) {
+            return;
+        }
+        DatabaseReference watcherRef = watchersRef.child(trackedUserId).child(uid);
+        watcherRef.onDisconnect().cancel();
+        watcherRef.removeValue();
+    }
+
+    /**
+     * listen for the number of users currently watching the location of the current user
+     *
+     * @param callback the callback function
+     * @return the listener, to be passed to {@link #removeWatcherCountListener}, null if no user is logged in
+     */
+    @Nullable
+    public ValueEventListener listenForWatcherCount(final WatcherCountCallback callback) {
+        String uid = getCurrentUserId();
+        if (uid == null) {
+            return null;
+        }
+        ValueEventListener listener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                callback.onWatcherCountChanged(dataSnapshot.getChildrenCount());
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.w(TAG, "listenForWatcherCount: cancelled", databaseError.toException());
+                callback.onWatcherCountChanged(0);
+            }
+        };
+        watchersRef.child(uid).addValueEventListener(listener);
+        return listener;
+    }
+
+    public void removeWatcherCountListener(String userId, ValueEventListener listener) {
+        watchersRef.child(userId).removeEventListener(listener);
     }
 
 
@@ -287,6 +662,85 @@ public class FirebaseHelper implements Serializable {
         });
     }
 
+    /**
+     * write today's step count of the current user. Only the step field of the user record is
+     * written, together with the user's stepBoard node in the same multi-path update, so the
+     * leaderboard projection never disagrees with the user record. The write never waits for
+     * the username: it is read once per user in the background and copied into the node once
+     * known, which also fills it in for accounts created before it. A failed read is retried
+     * on the next update.
+     *
+     * @param step today's step count
+     */
+    public void updateStep(long step) {
+        String uid = getCurrentUserId();
+        if (uid == null) {
+            return;
+        }
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("users/" + uid + "/step", step);
+        updates.put("stepBoard/" + uid + "/step", step);
+        updates.put("stepBoard/" + uid + "/updatedAt", ServerValue.TIMESTAMP);
+        if (uid.equals(stepBoardOwner)) {
+            if (stepBoardUsername != null) {
+                updates.put("stepBoard/" + uid + "/username", stepBoardUsername);
+            }
+        } else {
+            loadStepBoardUsername(uid);
+        }
+        myDatabase.updateChildren(updates).addOnFailureListener(e -> Log.w(TAG, "updateStep: failure", e));
+    }
+
+    private void loadStepBoardUsername(String uid) {
+        if (uid.equals(stepBoardUsernameLoading)) {
+            return;
+        }
+        stepBoardUsernameLoading = uid;
+        usersRef.child(uid).child("username").addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                String username = dataSnapshot.getValue(String.class);
+                stepBoardUsername = username;
+                stepBoardOwner = uid;
+                stepBoardUsernameLoading = null;
+                if (username != null) {
+                    stepBoardRef.child(uid).child("username").setValue(username)
+                            .addOnFailureListener(e -> Log.w(TAG, "updateStep: failed to copy the username", e));
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                // left unknown, the next update reads it again
+                stepBoardUsernameLoading = null;
+                Log.w(TAG, "updateStep: failed to read the username", databaseError.toException());
+            }
+        });
+    }
+
+    /**
+     * upload rolled-up daily step totals of the current user to stepHistory/{uid}/{yyyy-MM-dd}
+     * with a single multi-path write
+     *
+     * @param dailyTotals map of date (yyyy-MM-dd) to the total steps of that day
+     * @param callback    the callback function
+     */
+    public void uploadDailySteps(Map<String, Integer> dailyTotals, final StepHistoryUploadCallback callback) {
+        String uid = getCurrentUserId();
+        if (uid == null) {
+            callback.onFailure(new Exception("User not logged in"));
+            return;
+        }
+        Map<String, Object> updates = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : dailyTotals.entrySet()) {
+            updates.put("stepHistory/" + uid + "/" + entry.getKey(), entry.getValue());
+        }
+        myDatabase.updateChildren(updates).addOnSuccessListener(unused -> callback.onSuccess()).addOnFailureListener(e -> {
+            Log.w(TAG, "uploadDailySteps: failure", e);
+            callback.onFailure(e);
+        });
+    }
+
     public void getUserProfile(String userId, final UserProfileCallback callback) {
         DatabaseReference userReference = usersRef.child(userId);
         userReference.addListenerForSingleValueEvent(new ValueEventListener() {
@@ -309,6 +763,184 @@ public class FirebaseHelper implements Serializable {
         });
     }
 
+    /**
+     * read the uids of a user's friends, only users/{uid}/friends is downloaded
+     *
+     * @param userId   the uid of the user
+     * @param callback the callback function
+     */
+    public void getFriendIds(String userId, final FriendIdsCallback callback) {
+        usersRef.child(userId).child("friends").addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                Set<String> friendIds = new HashSet<>();
+                for (DataSnapshot snapshot : dataSnapshot.getChildren()) {
+                    String friendId = snapshot.getValue(String.class);
+                    if (friendId != null) {
+                        friendIds.add(friendId);
+                    }
+                }
+                callback.onFriendIdsReceived(friendIds);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                callback.onFailed(databaseError.toException());
+            }
+        });
+    }
+
+    /**
+     * read the leaderboard row of a user from stepBoard/{uid}. A user who has not synced any
+     * step since the node was introduced has none yet, the row is then built from the username
+     * and step fields of the user record.
+     *
+     * @param userId   the uid of the user
+     * @param callback the callback function
+     */
+    public void getStepBoardEntry(String userId, final StepBoardCallback callback) {
+        stepBoardRef.child(userId).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                deliverStepBoardEntry(userId, dataSnapshot, callback);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                callback.onFailed(databaseError.toException());
+            }
+        });
+    }
+
+    /**
+     * listen for the leaderboard row of a user, called with the current row and on every step sync
+     * of the user. A user without a stepBoard node yet gets a row built from the username and
+     * step fields of the user record, the username is read once per user.
+     *
+     * @param userId   the uid of the user
+     * @param callback the callback function
+     * @return the listener, to be passed to {@link #removeStepBoardListener}
+     */
+    public ValueEventListener listenForStepBoardEntry(String userId, final StepBoardCallback callback) {
+        ValueEventListener listener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                deliverStepBoardEntry(userId, dataSnapshot, callback);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.w(TAG, "listenForStepBoardEntry: cancelled", databaseError.toException());
+                callback.onFailed(databaseError.toException());
+            }
+        };
+        stepBoardRef.child(userId).addValueEventListener(listener);
+        return listener;
+    }
+
+    public void removeStepBoardListener(String userId, ValueEventListener listener) {
+        stepBoardRef.child(userId).removeEventListener(listener);
+    }
+
+    private void deliverStepBoardEntry(String userId, DataSnapshot dataSnapshot, final StepBoardCallback callback) {
+        StepBoardEntry entry = dataSnapshot.getValue(StepBoardEntry.class);
+        if (entry != null && entry.getUsername() != null) {
+            entry.setUserId(userId);
+            callback.onEntryReceived(entry);
+            return;
+        }
+        // no row or no username yet: the username is read once through the profile loader, never the whole user record
+        String username = stepBoardUsernames.get(userId);
+        if (username != null) {
+            deliverStepBoardFallback(userId, username, entry, callback);
+            return;
+        }
+        profileLoader.load(userId, new ProfileLoader.ProfileCallback() {
+            @Override
+            public void onProfileLoaded(Friend profile) {
+                stepBoardUsernames.put(userId, profile.getUsername());
+                deliverStepBoardFallback(userId, profile.getUsername(), entry, callback);
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                callback.onFailed(e);
+            }
+        });
+    }
+
+    // complete a row without username, the step is read from the user record if there is no row at all
+    private void deliverStepBoardFallback(String userId, String username, @Nullable StepBoardEntry entry, final StepBoardCallback callback) {
+        if (entry != null) {
+            entry.setUserId(userId);
+            entry.setUsername(username);
+            callback.onEntryReceived(entry);
+            return;
+        }
+        usersRef.child(userId).child("step").addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                Long step = dataSnapshot.getValue(Long.class);
+                callback.onEntryReceived(new StepBoardEntry(userId, username, step == null ? 0L : step));
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                callback.onFailed(databaseError.toException());
+            }
+        });
+    }
+
+    /**
+     * listen for friends added to or removed from the friend list of a user. Only the changed
+     * entry of users/{uid}/friends is delivered, the existing friends are added first.
+     *
+     * @param userId   the uid of the user
+     * @param callback the callback function
+     * @return the listener, to be passed to {@link #removeFriendChangeListener}
+     */
+    public ChildEventListener listenForFriendChanges(String userId, final FriendChangeCallback callback) {
+        ChildEventListener listener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                String friendId = snapshot.getValue(String.class);
+                if (friendId != null) {
+                    callback.onFriendAdded(friendId);
+                }
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                // friendship keys are never rewritten
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                String friendId = snapshot.getValue(String.class);
+                if (friendId != null) {
+                    callback.onFriendRemoved(friendId);
+                }
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                // the order of the friend list is not used
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.w(TAG, "listenForFriendChanges: cancelled", databaseError.toException());
+                callback.onFailed(databaseError.toException());
+            }
+        };
+        usersRef.child(userId).child("friends").addChildEventListener(listener);
+        return listener;
+    }
+
+    public void removeFriendChangeListener(String userId, ChildEventListener listener) {
+        usersRef.child(userId).child("friends").removeEventListener(listener);
+    }
+
     public void respondToFriendRequest(String requestId, String fromUserId, String toUserId, boolean accepted, final FriendshipResponseCallback callback) {
         DatabaseReference requestRef = friendRequestsRef.child(requestId);
 
@@ -355,59 +987,47 @@ public class FirebaseHelper implements Serializable {
         }
     }
 
-    public void listenForFriendsList(final FriendsListCallback callback) {
-        String uid = Objects.requireNonNull(mAuth.getCurrentUser()).getUid();
-        DatabaseReference friendsRef = usersRef.child(uid).child("friends");
-
-        friendsRef.addValueEventListener(new ValueEventListener() {
-            @Override
-            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
-                List<String> friendIds = new ArrayList<>();
-                for (DataSnapshot snapshot : dataSnapshot.getChildren()) {
-                    String friendId = snapshot.getValue(String.class);
-                    if (friendId != null) {
-                        friendIds.add(friendId);
-                    }
-                }
-
-                fetchFriendDetails(friendIds, callback);
-            }
-
-            @Override
-            public void onCancelled(@NonNull DatabaseError databaseError) {
-                callback.onFailed(databaseError.toException());
-            }
-        });
-    }
-
-    private void fetchFriendDetails(List<String> friendIds, final FriendsListCallback callback) {
-        if (friendIds.isEmpty()) {
-            callback.onFriendsListReceived(new ArrayList<>());
-            return;
-        }
-
-        List<Friend> friendsList = new ArrayList<>();
-        AtomicInteger completionCount = new AtomicInteger(0);
-
-        for (String friendId : friendIds) {
-            usersRef.child(friendId).addListenerForSingleValueEvent(new ValueEventListener() {
+    /**
+     * read the profile of a user: only the username, email and profileImageUrl fields of
+     * users/{uid} are read, never the friends map or the other fields of the record.
+     * Use {@link #getProfileLoader()} instead, which shares and limits the reads.
+     *
+     * @param userId   the uid of the user
+     * @param callback the callback function
+     */
+    void readProfile(String userId, final ProfileLoader.ProfileCallback callback) {
+        final Friend profile = new Friend();
+        profile.setUserId(userId);
+        final int[] remaining = {PROFILE_FIELDS.length};
+        final boolean[] failed = {false};
+        for (final String field : PROFILE_FIELDS) {
+            usersRef.child(userId).child(field).addListenerForSingleValueEvent(new ValueEventListener() {
                 @Override
                 public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
-                    Friend friend = dataSnapshot.getValue(Friend.class);
-                    String userId = dataSnapshot.getKey();
-                    if (friend != null) {
-                        friend.setUserId(userId);
-                        friendsList.add(friend);
+                    String value = dataSnapshot.getValue(String.class);
+                    if ("username".equals(field)) {
+                        profile.setUsername(value);
+                    } else if ("email".equals(field)) {
+                        profile.setEmail(value);
+                    } else {
+                        profile.setProfileImageUrl(value);
                     }
-
-                    if (completionCount.incrementAndGet() == friendIds.size()) {
-                        callback.onFriendsListReceived(friendsList);
+                    if (--remaining[0] > 0 || failed[0]) {
+                        return;
+                    }
+                    if (profile.getUsername() == null) {
+                        callback.onFailed(new Exception("User not found"));
+                    } else {
+                        callback.onProfileLoaded(profile);
                     }
                 }
 
                 @Override
                 public void onCancelled(@NonNull DatabaseError databaseError) {
-                    callback.onFailed(databaseError.toException());
+                    if (!failed[0]) {
+                        failed[0] = true;
+                        callback.onFailed(databaseError.toException());
+                    }
                 }
             });
         }
@@ -536,44 +1156,34 @@ public class FirebaseHelper implements Serializable {
         Map<String, Object> currentParticipantDetails = new HashMap<>();
         Map<String, Object> otherParticipantDetails = new HashMap<>();
 
-        AtomicInteger counter = new AtomicInteger(0);  // Counter to track fetched usernames
-
-        ValueEventListener listener = new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                if (dataSnapshot.getKey().equals(currentUserId)) {
-                    String username = dataSnapshot.child("username").getValue(String.class);
-                    currentParticipantDetails.put("username", username);
-                } else {
-                    String username = dataSnapshot.child("username").getValue(String.class);
-                    otherParticipantDetails.put("username", username);
+        profileLoader.loadAll(Arrays.asList(currentUserId, otherParticipantID), (profiles, errors) -> {
+            if (!errors.isEmpty()) {
+                Log.w("TAG", "loadUserName:onCancelled", errors.values().iterator().next());
+                callback.onFailed(errors.values().iterator().next());
+                return;
+            }
+            for (Friend profile : profiles) {
+                if (profile.getUserId().equals(currentUserId)) {
+                    currentParticipantDetails.put("username", profile.getUsername());
                 }
-
-                if (counter.incrementAndGet() == 2) { // Both usernames have been fetched
-                    currentParticipantDetails.put("status", true);
-                    otherParticipantDetails.put("status", true);
-
-                    participants.put(currentUserId, currentParticipantDetails);
-                    participants.put(otherParticipantID, otherParticipantDetails);
-
-                    newDiscussion.setParticipants(participants);
-                    newDiscussion.setDiscussionId(discussionId);
-
-                    // Push the new discussion to Firebase
-                    newDiscussionRef.setValue(newDiscussion).addOnSuccessListener(aVoid -> callback.onDiscussionCreated(newDiscussionRef.getKey())) // Return the ID of the newly created discussion
-                            .addOnFailureListener(callback::onFailed);
+                if (profile.getUserId().equals(otherParticipantID)) {
+                    otherParticipantDetails.put("username", profile.getUsername());
                 }
             }
+            // Both usernames have been fetched
+            currentParticipantDetails.put("status", true);
+            otherParticipantDetails.put("status", true);
 
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                // Handle error
-                Log.w("TAG", "loadUserName:onCancelled", databaseError.toException());
-            }
-        };
+            participants.put(currentUserId, currentParticipantDetails);
+            participants.put(otherParticipantID, otherParticipantDetails);
 
-        usersRef.child(currentUserId).addListenerForSingleValueEvent(listener);
-        usersRef.child(otherParticipantID).addListenerForSingleValueEvent(listener);
+            newDiscussion.setParticipants(participants);
+            newDiscussion.setDiscussionId(discussionId);
+
+            // Push the new discussion to Firebase
+            newDiscussionRef.setValue(newDiscussion).addOnSuccessListener(aVoid -> callback.onDiscussionCreated(newDiscussionRef.getKey())) // Return the ID of the newly created discussion
+                    .addOnFailureListener(callback::onFailed);
+        });
     }
 
     public void sendMessage(String discussionId, String content, final AuthCallback callback) {
@@ -0,0 +1,136 @@
+package com.example.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * GeoHash encodes positions as base32 geohash strings. Positions that share a prefix are in
+ * the same cell, which lets the database index locations under geo/{cell}/{uid} and answer
+ * proximity queries by reading a handful of cells.
+ */
+public final class GeoHash {
+    // mean radius of the Earth (in meters), shared by the distance computations of the app
+    public static final double EARTH_RADIUS = 6371000;
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private GeoHash() {
+    }
+
+    /**
+     * Encode a position
+     *
+     * @param latitude  latitude (in degrees)
+     * @param longitude longitude (in degrees)
+     * @param precision number of characters of the geohash
+     * @return the geohash of the cell containing the position
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLatitude = -90;
+        double maxLatitude = 90;
+        double minLongitude = -180;
+        double maxLongitude = 180;
+        StringBuilder builder = new StringBuilder(precision);
+        boolean evenBit = true;  // bits alternate between longitude and latitude, longitude first
+        int bit = 0;
+        int character = 0;
+        while (builder.length() < precision) {
+            if (evenBit) {
+                double middle = (minLongitude + maxLongitude) / 2;
+                if (longitude >= middle) {
+                    character = character << 1 | 1;
+                    minLongitude = middle;
+                } else {
+                    character <<= 1;
+                    maxLongitude = middle;
+                }
+            } else {
+                double middle = (minLatitude + maxLatitude) / 2;
+                if (latitude >= middle) {
+                    character = character << 1 | 1;
+                    minLatitude = middle;
+                } else {
+                    character <<= 1;
+                    maxLatitude = middle;
+                }
+            }
+            evenBit = !evenBit;
+            if (++bit == 5) {
+                builder.append(BASE32[character]);
+                bit = 0;
+                character = 0;
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get the height of a cell (in degrees of latitude)
+     */
+    static double cellHeight(int precision) {
+        return 180 / Math.pow(2, precision * 5 / 2);
+    }
+
+    /**
+     * Get the width of a cell (in degrees of longitude)
+     */
+    static double cellWidth(int precision) {
+        return 360 / Math.pow(2, (precision * 5 + 1) / 2);
+    }
+
+    /**
+     * Get the cells that together cover a circle
+     *
+     * @param latitude  latitude of the center (in degrees)
+     * @param longitude longitude of the center (in degrees)
+     * @param radius    radius of the circle (in meters)
+     * @param precision geohash precision of the cells
+     * @param maxCells  maximum number of cells to return
+     * @return the geohashes of the covering cells, null if more than maxCells are needed
+     */
+    public static List<String> coveringCells(double latitude, double longitude, double radius, int precision, int maxCells) {
+        double height = cellHeight(precision);
+        double width = cellWidth(precision);
+        double latitudeDelta = Math.toDegrees(radius / EARTH_RADIUS);
+        double minLatitude = Math.max(-90, latitude - latitudeDelta);
+        double maxLatitude = Math.min(90, latitude + latitudeDelta);
+        // the widest part of the circle is on the edge closest to a pole
+        double widestLatitude = Math.min(89.999, Math.max(Math.abs(minLatitude), Math.abs(maxLatitude)));
+        double longitudeDelta = Math.min(180, latitudeDelta / Math.cos(Math.toRadians(widestLatitude)));
+
+        int firstRow = (int) Math.floor((minLatitude + 90) / height);
+        int lastRow = (int) Math.min(Math.floor((maxLatitude + 90) / height), 180 / height - 1);
+        int columns = (int) Math.round(360 / width);
+        long firstColumn = (long) Math.floor((longitude - longitudeDelta + 180) / width);
+        long lastColumn = (long) Math.floor((longitude + longitudeDelta + 180) / width);
+        long columnCount = Math.min(columns, lastColumn - firstColumn + 1);
+        if ((long) (lastRow - firstRow + 1) * columnCount > maxCells) {
+            return null;
+        }
+
+        List<String> cells = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            double cellLatitude = -90 + (row + 0.5) * height;
+            for (long i = 0; i < columnCount; i++) {
+                // wrap around the antimeridian
+                long column = Math.floorMod(firstColumn + i, (long) columns);
+                double cellLongitude = -180 + (column + 0.5) * width;
+                cells.add(encode(cellLatitude, cellLongitude, precision));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Great-circle distance between two positions
+     *
+     * @return the distance (in meters)
+     */
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
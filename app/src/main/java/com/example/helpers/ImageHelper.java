@@ -5,12 +5,8 @@ import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import androidx.annotation.NonNull;
-
 import com.bumptech.glide.Glide;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.ValueEventListener;
+import com.example.model.Friend;
 
 public class ImageHelper {
 
@@ -20,37 +16,40 @@ public class ImageHelper {
     }
 
     public void fetchAndSetUserProfileImage(String userId, ImageView imageView, TextView textView) {
-        firebaseHelper.usersRef.child(userId).addListenerForSingleValueEvent(new ValueEventListener() {
+        // the rows of a list are recycled, only the last user bound to the views is shown
+        textView.setTag(userId);
+        firebaseHelper.getProfileLoader().load(userId, new ProfileLoader.ProfileCallback() {
             @Override
-            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
-                if (dataSnapshot.exists() && dataSnapshot.hasChild("profileImageUrl")) {
-                    String imageUrl = dataSnapshot.child("profileImageUrl").getValue(String.class);
-                    if (imageUrl != null && !imageUrl.isEmpty()) {
-                        imageView.setVisibility(View.VISIBLE);
-                        textView.setVisibility(View.GONE);
-                        Glide.with(imageView.getContext()).load(imageUrl).into(imageView);
-                    } else {
-                        setImageToDefaultAvatar(imageView, textView, dataSnapshot);
-                    }
+            public void onProfileLoaded(Friend profile) {
+                if (!userId.equals(textView.getTag())) {
+                    return;
+                }
+                String imageUrl = profile.getProfileImageUrl();
+                if (imageUrl != null && !imageUrl.isEmpty()) {
+                    imageView.setVisibility(View.VISIBLE);
+                    textView.setVisibility(View.GONE);
+                    Glide.with(imageView.getContext()).load(imageUrl).into(imageView);
                 } else {
-                    setImageToDefaultAvatar(imageView, textView, dataSnapshot);
+                    setImageToDefaultAvatar(imageView, textView, profile.getUsername());
                 }
             }
 
             @Override
-            public void onCancelled(@NonNull DatabaseError databaseError) {
+            public void onFailed(Exception e) {
                 // Handle possible errors.
-                Log.d("DatabaseError", "fetchAndSetUserProfileImage:onCancelled", databaseError.toException());
+                Log.d("DatabaseError", "fetchAndSetUserProfileImage:onCancelled", e);
+                if (userId.equals(textView.getTag())) {
+                    setImageToDefaultAvatar(imageView, textView, null);
+                }
             }
         });
     }
 
-    private void setImageToDefaultAvatar(ImageView imageView, TextView textView, DataSnapshot dataSnapshot) {
+    private void setImageToDefaultAvatar(ImageView imageView, TextView textView, String username) {
         imageView.setVisibility(View.GONE);
         textView.setVisibility(View.VISIBLE);
-        if (dataSnapshot.hasChild("username")) {
-            String username = dataSnapshot.child("username").getValue(String.class);
-            textView.setText(username != null && !username.isEmpty() ? username.substring(0, 1).toUpperCase() : "");
+        if (username != null) {
+            textView.setText(!username.isEmpty() ? username.substring(0, 1).toUpperCase() : "");
         }
     }
 }
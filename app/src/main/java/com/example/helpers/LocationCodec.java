@@ -0,0 +1,220 @@
+package com.example.helpers;
+
+import com.example.model.LocationData;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LocationCodec packs a LocationData into a short string for the wire.
+ * <p>
+ * Layout (16 bytes, big endian), written as unpadded url-safe base64 (22 characters):
+ * <pre>
+ * version     1 byte
+ * latitude    4 bytes, signed, 1e-6 degree
+ * longitude   4 bytes, signed, 1e-6 degree
+ * speed       2 bytes, unsigned, 0.01 m/s (capped at 655.35 m/s)
+ * timestamp   4 bytes, unsigned, seconds since the epoch
+ * battery     1 byte, percent
+ * </pre>
+ * The legacy format (a map with one key per LocationData field) is still decoded.
+ */
+public final class LocationCodec {
+    static final int VERSION = 1;
+    static final int PACKED_SIZE = 16;
+    private static final double COORDINATE_SCALE = 1e6;
+    private static final float SPEED_SCALE = 100f;
+    private static final int MAX_SPEED = 0xFFFF;
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final int[] INDEX = new int[128];
+
+    static {
+        Arrays.fill(INDEX, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            INDEX[ALPHABET[i]] = i;
+        }
+    }
+
+    private LocationCodec() {
+    }
+
+    /**
+     * Encode a location in the compact format
+     *
+     * @param locationData the location to encode
+     * @return the 22 character encoded location
+     */
+    public static String encode(LocationData locationData) {
+        byte[] bytes = new byte[PACKED_SIZE];
+        long speed = Math.round(locationData.getSpeed() * SPEED_SCALE);
+        long battery = locationData.getBatteryLevel();
+        bytes[0] = (byte) VERSION;
+        putInt(bytes, 1, (int) Math.round(locationData.getLatitude() * COORDINATE_SCALE));
+        putInt(bytes, 5, (int) Math.round(locationData.getLongitude() * COORDINATE_SCALE));
+        putShort(bytes, 9, (int) Math.max(0, Math.min(MAX_SPEED, speed)));
+        putInt(bytes, 11, (int) (locationData.getTimestamp() / 1000));
+        bytes[15] = (byte) Math.max(0, Math.min(100, battery));
+        return toBase64(bytes);
+    }
+
+    /**
+     * Decode a location written in the compact format
+     *
+     * @param encoded the encoded location
+     * @return the decoded location
+     * @throws IllegalArgumentException if the string is not a compact location
+     */
+    public static LocationData decode(String encoded) {
+        byte[] bytes = fromBase64(encoded);
+        if (bytes.length != PACKED_SIZE || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Unsupported location format: " + encoded);
+        }
+        return new LocationData(
+                getInt(bytes, 1) / COORDINATE_SCALE,
+                getInt(bytes, 5) / COORDINATE_SCALE,
+                getShort(bytes, 9) / SPEED_SCALE,
+                (getInt(bytes, 11) & 0xFFFFFFFFL) * 1000,
+                bytes[15] & 0xFF);
+    }
+
+    /**
+     * Decode the value of a locations/{uid} node, in either the compact or the legacy format
+     *
+     * @param value the value returned by DataSnapshot.getValue()
+     * @return the decoded location, null if the value is not a location
+     */
+    public static LocationData decodeValue(Object value) {
+        if (value instanceof String) {
+            try {
+                return decode((String) value);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            return new LocationData(
+                    number(map.get("latitude")).doubleValue(),
+                    number(map.get("longitude")).doubleValue(),
+                    number(map.get("speed")).floatValue(),
+                    number(map.get("timestamp")).longValue(),
+                    number(map.get("batteryLevel")).intValue());
+        }
+        return null;
+    }
+
+    /**
+     * Estimate the JSON size of a database value, the SDK does not expose wire sizes
+     *
+     * @param value a value as returned by DataSnapshot.getValue() or passed to a write
+     * @return the approximate size in bytes
+     */
+    public static long estimateJsonSize(Object value) {
+        if (value == null) {
+            return 4; // null
+        }
+        if (value instanceof LocationData) {
+            LocationData locationData = (LocationData) value;
+            // written by the client as an object with one key per field
+            return 2 + 5 * 4 + "batteryLevel".length() + "latitude".length() + "longitude".length()
+                    + "speed".length() + "timestamp".length()
+                    + String.valueOf(locationData.getBatteryLevel()).length()
+                    + String.valueOf(locationData.getLatitude()).length()
+                    + String.valueOf(locationData.getLongitude()).length()
+                    + String.valueOf((double) locationData.getSpeed()).length()
+                    + String.valueOf(locationData.getTimestamp()).length();
+        }
+        if (value instanceof Map) {
+            long size = 2; // {}
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += String.valueOf(entry.getKey()).length() + 4; // "key": and separator
+                size += estimateJsonSize(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof List) {
+            long size = 2; // []
+            for (Object item : (List<?>) value) {
+                size += estimateJsonSize(item) + 1;
+            }
+            return size;
+        }
+        if (value instanceof String) {
+            return ((String) value).length() + 2;
+        }
+        return String.valueOf(value).length();
+    }
+
+    private static Number number(Object value) {
+        return value instanceof Number ? (Number) value : 0;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+                | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void putShort(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 8);
+        bytes[offset + 1] = (byte) value;
+    }
+
+    private static int getShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
+    }
+
+    // java.util.Base64 needs API 26 and android.util.Base64 is not available in unit tests
+    private static String toBase64(byte[] bytes) {
+        StringBuilder builder = new StringBuilder((bytes.length * 4 + 2) / 3);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = Math.min(3, bytes.length - i);
+            int chunk = (bytes[i] & 0xFF) << 16;
+            if (remaining > 1) {
+                chunk |= (bytes[i + 1] & 0xFF) << 8;
+            }
+            if (remaining > 2) {
+                chunk |= bytes[i + 2] & 0xFF;
+            }
+            for (int j = 0; j <= remaining; j++) {
+                builder.append(ALPHABET[(chunk >>> (18 - 6 * j)) & 0x3F]);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static byte[] fromBase64(String encoded) {
+        int length = encoded.length();
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Invalid base64 length: " + encoded);
+        }
+        byte[] bytes = new byte[length * 3 / 4];
+        int chunk = 0;
+        int bits = 0;
+        int index = 0;
+        for (int i = 0; i < length; i++) {
+            char c = encoded.charAt(i);
+            int value = c < 128 ? INDEX[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid base64 character: " + encoded);
+            }
+            chunk = chunk << 6 | value;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                bytes[index++] = (byte) (chunk >>> bits);
+            }
+        }
+        return bytes;
+    }
+}
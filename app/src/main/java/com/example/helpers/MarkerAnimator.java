@@ -0,0 +1,203 @@
+package com.example.helpers;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MarkerAnimator moves the map markers between location updates instead of teleporting them.
+ * Between two fixes the position of a friend is extrapolated (dead reckoning) from the last
+ * speed and bearing, and the displayed position eases toward it, so a new fix corrects the
+ * marker smoothly. All markers are driven from a single Choreographer frame callback which
+ * only runs while at least one marker is still moving.
+ * <p>
+ * Extrapolation stops after {@link #MAX_EXTRAPOLATION_TIME} or {@link #MAX_DRIFT} meters,
+ * the marker then freezes until the next fix arrives.
+ */
+public class MarkerAnimator implements Choreographer.FrameCallback {
+    // below this speed the user is treated as standing still (in m/s)
+    private static final float MIN_SPEED = 0.5f;
+    // fixes closer than this are too noisy to derive a bearing from (in meters)
+    private static final double MIN_BEARING_DISTANCE = 5;
+    // maximum distance a marker may drift away from its last fix (in meters)
+    static final double MAX_DRIFT = 100;
+    // maximum time a fix is extrapolated for (in milliseconds)
+    static final long MAX_EXTRAPOLATION_TIME = 30000;
+    // time constant of the easing toward the extrapolated position (in milliseconds)
+    private static final double EASING_TIME = 400;
+    // a marker closer than this to its target is settled (in meters)
+    private static final double SETTLED_DISTANCE = 0.1;
+
+    /**
+     * Dead reckoning state of one marker
+     */
+    private static class Track {
+        final Marker marker;
+        double fixLatitude;
+        double fixLongitude;
+        float speed;  // in m/s
+        double bearing = Double.NaN;  // in degrees, NaN until the user has moved
+        long fixTime;  // uptime when the fix was received (in milliseconds)
+        double displayLatitude;
+        double displayLongitude;
+
+        Track(Marker marker, double latitude, double longitude) {
+            this.marker = marker;
+            fixLatitude = displayLatitude = latitude;
+            fixLongitude = displayLongitude = longitude;
+        }
+    }
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+    // tracks keyed by user ID
+    private final Map<String, Track> tracks = new HashMap<>();
+    private boolean frameScheduled;
+    private boolean running;
+    private long lastFrameTime;
+
+    /**
+     * Start or update the track of a marker with a new fix
+     *
+     * @param userId    the user ID
+     * @param marker    the marker of the user
+     * @param latitude  latitude of the fix
+     * @param longitude longitude of the fix
+     * @param speed     speed of the fix (in m/s)
+     * @param fixAge    how old the fix already is when it is received (in milliseconds)
+     */
+    public void onLocationUpdate(String userId, Marker marker, double latitude, double longitude, float speed, long fixAge) {
+        Track track = tracks.get(userId);
+        if (track == null || track.marker != marker) {
+            track = new Track(marker, latitude, longitude);
+            tracks.put(userId, track);
+        } else {
+            // the update only carries a speed, derive the bearing from the previous fix
+            if (GeoHash.distance(track.fixLatitude, track.fixLongitude, latitude, longitude) >= MIN_BEARING_DISTANCE) {
+                track.bearing = bearing(track.fixLatitude, track.fixLongitude, latitude, longitude);
+            }
+            track.fixLatitude = latitude;
+            track.fixLongitude = longitude;
+        }
+        track.speed = speed;
+        track.fixTime = SystemClock.uptimeMillis() - Math.max(0, fixAge);
+        scheduleFrame();
+    }
+
+    /**
+     * Stop animating the marker of a user
+     *
+     * @param userId the user ID
+     */
+    public void remove(String userId) {
+        tracks.remove(userId);
+    }
+
+    /**
+     * Stop animating every marker
+     */
+    public void clear() {
+        tracks.clear();
+    }
+
+    /**
+     * Resume the frame loop, e.g. when the map becomes visible
+     */
+    public void start() {
+        running = true;
+        scheduleFrame();
+    }
+
+    /**
+     * Pause the frame loop, markers stay where they are
+     */
+    public void stop() {
+        running = false;
+        if (frameScheduled) {
+            choreographer.removeFrameCallback(this);
+            frameScheduled = false;
+        }
+    }
+
+    private void scheduleFrame() {
+        if (running && !frameScheduled && !tracks.isEmpty()) {
+            frameScheduled = true;
+            lastFrameTime = 0;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        long now = SystemClock.uptimeMillis();
+        long frameDelta = lastFrameTime == 0 ? 16 : now - lastFrameTime;
+        lastFrameTime = now;
+        // fraction of the remaining distance covered during this frame
+        double easing = 1 - Math.exp(-frameDelta / EASING_TIME);
+
+        boolean moving = false;
+        for (Track track : tracks.values()) {
+            double[] target = extrapolate(track.fixLatitude, track.fixLongitude, track.speed, track.bearing,
+                    now - track.fixTime);
+            double remaining = GeoHash.distance(track.displayLatitude, track.displayLongitude, target[0], target[1]);
+            if (remaining < SETTLED_DISTANCE) {
+                track.displayLatitude = target[0];
+                track.displayLongitude = target[1];
+            } else {
+                track.displayLatitude += (target[0] - track.displayLatitude) * easing;
+                track.displayLongitude += (target[1] - track.displayLongitude) * easing;
+                moving = true;
+            }
+            track.marker.setPosition(new LatLng(track.displayLatitude, track.displayLongitude));
+            if (isExtrapolating(track, now)) {
+                moving = true;
+            }
+        }
+        // once every marker is settled or frozen the loop stops until the next fix
+        if (moving && running) {
+            frameScheduled = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    private static boolean isExtrapolating(Track track, long now) {
+        return track.speed >= MIN_SPEED && !Double.isNaN(track.bearing)
+                && now - track.fixTime < MAX_EXTRAPOLATION_TIME
+                && track.speed * (now - track.fixTime) / 1000.0 < MAX_DRIFT;
+    }
+
+    /**
+     * Extrapolate a fix along its bearing, the distance is capped by {@link #MAX_DRIFT}
+     * and {@link #MAX_EXTRAPOLATION_TIME}
+     *
+     * @param elapsed time since the fix (in milliseconds)
+     * @return the extrapolated latitude and longitude
+     */
+    static double[] extrapolate(double latitude, double longitude, float speed, double bearing, long elapsed) {
+        if (speed < MIN_SPEED || Double.isNaN(bearing) || elapsed <= 0) {
+            return new double[]{latitude, longitude};
+        }
+        double travelled = Math.min(speed * Math.min(elapsed, MAX_EXTRAPOLATION_TIME) / 1000.0, MAX_DRIFT);
+        double radians = Math.toRadians(bearing);
+        double dLat = travelled * Math.cos(radians) / GeoHash.EARTH_RADIUS;
+        double dLon = travelled * Math.sin(radians) / (GeoHash.EARTH_RADIUS * Math.cos(Math.toRadians(latitude)));
+        return new double[]{latitude + Math.toDegrees(dLat), longitude + Math.toDegrees(dLon)};
+    }
+
+    /**
+     * Initial bearing from the first point to the second one (in degrees)
+     */
+    static double bearing(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        double lat1 = Math.toRadians(fromLatitude);
+        double lat2 = Math.toRadians(toLatitude);
+        double dLon = Math.toRadians(toLongitude - fromLongitude);
+        double y = Math.sin(dLon) * Math.cos(lat2);
+        double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(dLon);
+        return (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.helpers;
+
+import com.example.model.Friend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * ProfileLoader reads user profiles for every caller that needs them, like a DataLoader:
+ * <ul>
+ *     <li>requests for a user whose read is queued or in flight share that read</li>
+ *     <li>at most maxInFlight reads run at the same time, the others wait in a queue</li>
+ *     <li>a read that takes longer than the timeout fails, its late result is ignored</li>
+ * </ul>
+ * A batch completes once every profile arrived or failed, with the profiles received and the
+ * errors of the others, so one slow or cancelled read never blocks the whole batch.
+ * <p>
+ * The loader is not thread-safe: it is used from the main thread, where the database delivers
+ * its results.
+ */
+public class ProfileLoader {
+
+    /**
+     * Reads one profile from the backend
+     */
+    public interface Source {
+        void read(String userId, ProfileCallback callback);
+    }
+
+    /**
+     * Runs the timeouts, on the thread of the loader
+     */
+    public interface Scheduler {
+        void postDelayed(Runnable task, long delayMillis);
+
+        void cancel(Runnable task);
+    }
+
+    public interface ProfileCallback {
+        void onProfileLoaded(Friend profile);
+
+        void onFailed(Exception e);
+    }
+
+    public interface BatchCallback {
+        /**
+         * @param profiles the profiles received, in the order of the requested uids
+         * @param errors   the error of every profile that could not be loaded, by uid
+         */
+        void onBatchLoaded(List<Friend> profiles, Map<String, Exception> errors);
+    }
+
+    // default number of reads running at the same time
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+    // default time after which a read fails (in milliseconds)
+    public static final long DEFAULT_TIMEOUT = 5000;
+
+    private final Source source;
+    private final Scheduler scheduler;
+    private final int maxInFlight;
+    private final long timeout;
+    // queued and running reads by uid, a new request for one of them joins it
+    private final Map<String, Read> reads = new HashMap<>();
+    // reads waiting for a free slot
+    private final Queue<Read> queue = new ArrayDeque<>();
+    private int inFlight;
+    private int readCount;  // number of reads started since the loader was created
+
+    /**
+     * @param source      reads one profile from the backend
+     * @param scheduler   runs the timeouts
+     * @param maxInFlight maximum number of reads running at the same time
+     * @param timeout     time after which a read fails (in milliseconds)
+     */
+    public ProfileLoader(Source source, Scheduler scheduler, int maxInFlight, long timeout) {
+        this.source = source;
+        this.scheduler = scheduler;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the scheduler running the timeouts, on the thread of the callbacks
+     */
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Load the profile of a user, sharing the read already requested for the same user
+     */
+    public void load(String userId, ProfileCallback callback) {
+        Read read = reads.get(userId);
+        if (read == null) {
+            read = new Read(userId);
+            reads.put(userId, read);
+            queue.add(read);
+        }
+        read.callbacks.add(callback);
+        startReads();
+    }
+
+    /**
+     * Load the profiles of several users, duplicated uids are read once
+     */
+    public void loadAll(Collection<String> userIds, final BatchCallback callback) {
+        final Set<String> uniqueIds = new LinkedHashSet<>(userIds);
+        if (uniqueIds.isEmpty()) {
+            callback.onBatchLoaded(new ArrayList<Friend>(), Collections.<String, Exception>emptyMap());
+            return;
+        }
+        final Map<String, Friend> profiles = new HashMap<>();
+        final Map<String, Exception> errors = new LinkedHashMap<>();
+        for (final String userId : uniqueIds) {
+            load(userId, new ProfileCallback() {
+                @Override
+                public void onProfileLoaded(Friend profile) {
+                    profiles.put(userId, profile);
+                    onResult();
+                }
+
+                @Override
+                public void onFailed(Exception e) {
+                    errors.put(userId, e);
+                    onResult();
+                }
+
+                private void onResult() {
+                    if (profiles.size() + errors.size() < uniqueIds.size()) {
+                        return;
+                    }
+                    List<Friend> ordered = new ArrayList<>(profiles.size());
+                    for (String id : uniqueIds) {
+                        Friend profile = profiles.get(id);
+                        if (profile != null) {
+                            ordered.add(profile);
+                        }
+                    }
+                    callback.onBatchLoaded(ordered, errors);
+                }
+            });
+        }
+    }
+
+    private void startReads() {
+        while (inFlight < maxInFlight && !queue.isEmpty()) {
+            final Read read = queue.poll();
+            inFlight++;
+            readCount++;
+            scheduler.postDelayed(read.timeoutTask, timeout);
+            source.read(read.userId, new ProfileCallback() {
+                @Override
+                public void onProfileLoaded(Friend profile) {
+                    finish(read, profile, null);
+                }
+
+                @Override
+                public void onFailed(Exception e) {
+                    finish(read, null, e);
+                }
+            });
+        }
+    }
+
+    private void finish(Read read, Friend profile, Exception error) {
+        if (read.done) {
+            return;  // the read timed out, or the backend answered twice
+        }
+        read.done = true;
+        reads.remove(read.userId);
+        scheduler.cancel(read.timeoutTask);
+        inFlight--;
+        for (ProfileCallback callback : read.callbacks) {
+            if (error == null) {
+                callback.onProfileLoaded(profile);
+            } else {
+                callback.onFailed(error);
+            }
+        }
+        startReads();
+    }
+
+    /**
+     * @return the number of reads started since the loader was created
+     */
+    public int getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * @return the number of reads running now
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    private final class Read {
+        final String userId;
+        final List<ProfileCallback> callbacks = new ArrayList<>(1);
+        final Runnable timeoutTask;
+        boolean done;
+
+        Read(final String userId) {
+            this.userId = userId;
+            timeoutTask = () -> finish(this, null, new Exception("Timed out reading the profile of " + userId));
+        }
+    }
+}
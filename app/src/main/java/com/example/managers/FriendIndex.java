@@ -0,0 +1,184 @@
+package com.example.managers;
+
+import com.example.model.Friend;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * FriendIndex is an immutable snapshot of the friend list with the lookups built once:
+ * the friends by uid, the set of their uids, and the normalized words of their usernames in a
+ * sorted array. Checking a uid costs O(1) and a prefix search O(log n + matches), whatever the
+ * number of friends, and a snapshot can be shared between threads.
+ * <p>
+ * A username matches a query when the query is a prefix of the whole name or of one of its
+ * words, ignoring case and accents: "ann" finds "Anna" and "Marie Annick".
+ */
+public final class FriendIndex {
+    public static final FriendIndex EMPTY = new FriendIndex(Collections.<Friend>emptyList());
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[\\s._-]+");
+
+    private final List<Friend> friends;
+    private final Map<String, Friend> friendsById;
+    private final Set<String> friendIds;
+    // normalized names and name words in order, with the friend of each one
+    private final String[] keys;
+    private final Friend[] keyFriends;
+
+    private FriendIndex(Collection<Friend> friendList) {
+        friends = Collections.unmodifiableList(new ArrayList<>(friendList));
+        Map<String, Friend> byId = new HashMap<>();
+        List<Key> keyList = new ArrayList<>();
+        for (Friend friend : friends) {
+            byId.put(friend.getUserId(), friend);
+            String name = normalize(friend.getUsername());
+            if (name.isEmpty()) {
+                continue;
+            }
+            keyList.add(new Key(name, friend));
+            String[] words = SEPARATORS.split(name);
+            if (words.length > 1) {
+                for (String word : words) {
+                    if (!word.isEmpty()) {
+                        keyList.add(new Key(word, friend));
+                    }
+                }
+            }
+        }
+        friendsById = Collections.unmodifiableMap(byId);
+        friendIds = Collections.unmodifiableSet(byId.keySet());
+        Key[] sorted = keyList.toArray(new Key[0]);
+        Arrays.sort(sorted);
+        keys = new String[sorted.length];
+        keyFriends = new Friend[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = sorted[i].text;
+            keyFriends[i] = sorted[i].friend;
+        }
+    }
+
+    /**
+     * Build the index of a friend list, in O(n log n)
+     */
+    public static FriendIndex build(Collection<Friend> friendList) {
+        return friendList.isEmpty() ? EMPTY : new FriendIndex(friendList);
+    }
+
+    /**
+     * @return the text in lower case without accents and surrounding spaces, "" for null
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text.trim(), Normalizer.Form.NFD);
+        return ACCENTS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the friends in the order of the friend list
+     */
+    public List<Friend> getFriends() {
+        return friends;
+    }
+
+    /**
+     * @return the uids of the friends, the same set until the friend list changes
+     */
+    public Set<String> getFriendIds() {
+        return friendIds;
+    }
+
+    public Friend getFriend(String userId) {
+        return friendsById.get(userId);
+    }
+
+    public boolean contains(String userId) {
+        return friendIds.contains(userId);
+    }
+
+    public int size() {
+        return friends.size();
+    }
+
+    /**
+     * Find the friends whose username or one of its words starts with the query
+     *
+     * @param query the text typed by the user
+     * @return the matching friends in the order of the matching name or word, empty for an empty query
+     */
+    public List<Friend> search(String query) {
+        String prefix = normalize(query);
+        if (prefix.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Set<Friend> matches = new LinkedHashSet<>();
+        for (int i = lowerBound(prefix); i < keys.length && keys[i].startsWith(prefix); i++) {
+            matches.add(keyFriends[i]);
+        }
+        return new ArrayList<>(matches);
+    }
+
+    /**
+     * @return true if the username of the friend or one of its words starts with the query,
+     * the same rule as {@link #search(String)}
+     */
+    public static boolean matches(Friend friend, String query) {
+        String prefix = normalize(query);
+        String name = normalize(friend.getUsername());
+        if (prefix.isEmpty() || name.isEmpty()) {
+            return false;
+        }
+        if (name.startsWith(prefix)) {
+            return true;
+        }
+        for (String word : SEPARATORS.split(name)) {
+            if (word.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // index of the first key not before the prefix
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static final class Key implements Comparable<Key> {
+        final String text;
+        final Friend friend;
+
+        Key(String text, Friend friend) {
+            this.text = text;
+            this.friend = friend;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            return text.compareTo(other.text);
+        }
+    }
+}
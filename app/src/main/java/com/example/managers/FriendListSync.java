@@ -0,0 +1,136 @@
+package com.example.managers;
+
+import androidx.annotation.NonNull;
+
+import com.example.helpers.ProfileLoader;
+import com.example.model.Friend;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FriendListSync turns the child events of users/{uid}/friends into keyed changes of the friend
+ * list: an added friend costs one profile read, a removed friend none, and the other friends are
+ * neither read again nor replaced.
+ * <p>
+ * A friendship can be stored more than once in the list, a friend is removed with the last entry.
+ * A failed profile read is retried with an increasing delay for as long as the friend is in the list.
+ * Used from the main thread, where the database delivers its events.
+ */
+public class FriendListSync {
+    // delay before the first retry of a failed profile read, doubled by every retry (in milliseconds)
+    static final long RETRY_DELAY = 2000;
+    static final long MAX_RETRY_DELAY = 5 * 60 * 1000;
+
+    /**
+     * Receives the changes of the friend list, keyed by uid
+     */
+    public interface Listener {
+        void onFriendAdded(Friend friend);
+
+        void onFriendRemoved(String friendId);
+
+        /**
+         * The profile of an added friend could not be read, it is read again after the delay
+         *
+         * @param retryDelay the delay before the next read (in milliseconds)
+         */
+        void onFriendReadFailed(String friendId, Exception e, long retryDelay);
+    }
+
+    private final ProfileLoader profileLoader;
+    private final ProfileLoader.Scheduler scheduler;
+    private final Listener listener;
+    // number of friend list entries of each friend
+    private final Map<String, Integer> entries = new HashMap<>();
+    // incremented every time a friend is added, a profile read for an older addition is ignored
+    private final Map<String, Integer> additions = new HashMap<>();
+    // friends passed to the listener
+    private final Set<String> delivered = new HashSet<>();
+    // scheduled retries of failed profile reads
+    private final Map<String, Runnable> retries = new HashMap<>();
+
+    /**
+     * @param profileLoader reads the profiles of the added friends
+     * @param scheduler     runs the retries of failed reads, on the thread of the events
+     * @param listener      receives the changes of the friend list
+     */
+    public FriendListSync(@NonNull ProfileLoader profileLoader, @NonNull ProfileLoader.Scheduler scheduler,
+                          @NonNull Listener listener) {
+        this.profileLoader = profileLoader;
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    /**
+     * A friend list entry was added, the profile is read if the friend is new
+     */
+    public void onFriendAdded(final String friendId) {
+        Integer count = entries.get(friendId);
+        entries.put(friendId, count == null ? 1 : count + 1);
+        if (count != null) {
+            return;
+        }
+        Integer previous = additions.get(friendId);
+        final int addition = previous == null ? 1 : previous + 1;
+        additions.put(friendId, addition);
+        readProfile(friendId, addition, RETRY_DELAY);
+    }
+
+    private void readProfile(final String friendId, final int addition, final long retryDelay) {
+        profileLoader.load(friendId, new ProfileLoader.ProfileCallback() {
+            @Override
+            public void onProfileLoaded(Friend profile) {
+                // skip a friend removed, or removed and added again, while the profile was read
+                if (isCurrent(friendId, addition)) {
+                    delivered.add(friendId);
+                    listener.onFriendAdded(profile);
+                }
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                if (!isCurrent(friendId, addition)) {
+                    return;
+                }
+                listener.onFriendReadFailed(friendId, e, retryDelay);
+                Runnable retry = () -> {
+                    retries.remove(friendId);
+                    if (isCurrent(friendId, addition)) {
+                        readProfile(friendId, addition, Math.min(retryDelay * 2, MAX_RETRY_DELAY));
+                    }
+                };
+                retries.put(friendId, retry);
+                scheduler.postDelayed(retry, retryDelay);
+            }
+        });
+    }
+
+    private boolean isCurrent(String friendId, int addition) {
+        return entries.containsKey(friendId) && additions.get(friendId) == addition;
+    }
+
+    /**
+     * A friend list entry was removed, the friend is dropped with the last entry
+     */
+    public void onFriendRemoved(String friendId) {
+        Integer count = entries.get(friendId);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            entries.put(friendId, count - 1);
+            return;
+        }
+        entries.remove(friendId);
+        Runnable retry = retries.remove(friendId);
+        if (retry != null) {
+            scheduler.cancel(retry);
+        }
+        if (delivered.remove(friendId)) {
+            listener.onFriendRemoved(friendId);
+        }
+    }
+}
@@ -1,16 +1,37 @@
 package com.example.managers;
 
+import android.util.Log;
+
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
 import com.example.model.Friend;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class FriendManager {
+/**
+ * FriendManager holds the friend list of the current user. Changes are applied to a map keyed
+ * by uid, and every change schedules one rebuild of an immutable {@link FriendIndex} off the
+ * main thread; changes arriving before the rebuild runs share it. The lookups read the latest
+ * index, so they cost the same whatever the number of friends.
+ */
+public class FriendManager implements FriendListSync.Listener {
+    private static final String TAG = "FriendManager";
     private static FriendManager instance;
     private final MutableLiveData<List<Friend>> friendsListLiveData;
+    // friends by uid, in the order they were added, changed one friend at a time
+    private final Map<String, Friend> friends = new LinkedHashMap<>();
+    // rebuilds the index, one at a time so that the last one built is the newest
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor();
+    private final Runnable rebuildTask = this::rebuild;
+    private volatile FriendIndex index = FriendIndex.EMPTY;
+    private boolean rebuildScheduled;  // guarded by friends
 
     private FriendManager() {
         friendsListLiveData = new MutableLiveData<>(new ArrayList<>());
@@ -28,34 +49,95 @@ public class FriendManager {
     }
 
     public void setFriendsList(List<Friend> friendList) {
-        friendsListLiveData.setValue(friendList);
+        synchronized (friends) {
+            friends.clear();
+            for (Friend friend : friendList) {
+                friends.put(friend.getUserId(), friend);
+            }
+            scheduleRebuild();
+        }
     }
 
-    public boolean isUserAFriend(String userId) {
-        List<Friend> friendsList = friendsListLiveData.getValue();
-        if (friendsList != null) {
-            for (Friend friend : friendsList) {
-                if (friend.getUserId().equals(userId)) {
-                    return true;
-                }
+    /**
+     * Add a friend, or replace the profile of a friend already in the list
+     */
+    @Override
+    public void onFriendAdded(Friend friend) {
+        synchronized (friends) {
+            friends.put(friend.getUserId(), friend);
+            scheduleRebuild();
+        }
+    }
+
+    @Override
+    public void onFriendRemoved(String friendId) {
+        synchronized (friends) {
+            if (friends.remove(friendId) != null) {
+                scheduleRebuild();
             }
         }
-        return false;
     }
 
-    public List<Friend> searchFriends(String query) {
-        List<Friend> matchedFriends = new ArrayList<>();
-        List<Friend> allFriends = friendsListLiveData.getValue();
-
-        if (allFriends != null && !query.isEmpty()) {
-            for (Friend friend : allFriends) {
-                if (friend.getUsername() != null && friend.getUsername().toLowerCase().contains(query.toLowerCase())) {
-                    matchedFriends.add(friend);
-                }
+    @Override
+    public void onFriendReadFailed(String friendId, Exception e, long retryDelay) {
+        Log.w(TAG, "onFriendReadFailed: cannot read the profile of " + friendId + ", retrying in "
+                + retryDelay + " ms", e);
+    }
+
+    /**
+     * Empty the list, e.g. before the friend list of a user is synced again
+     */
+    public void clear() {
+        synchronized (friends) {
+            if (!friends.isEmpty()) {
+                friends.clear();
+                scheduleRebuild();
             }
         }
+    }
 
-        return matchedFriends;
+    private void scheduleRebuild() {
+        if (!rebuildScheduled) {
+            rebuildScheduled = true;
+            indexer.execute(rebuildTask);
+        }
+    }
+
+    private void rebuild() {
+        List<Friend> snapshot;
+        synchronized (friends) {
+            rebuildScheduled = false;
+            snapshot = new ArrayList<>(friends.values());
+        }
+        FriendIndex built = FriendIndex.build(snapshot);
+        index = built;
+        // observers get the list of the index on the main thread, consecutive posts are merged
+        friendsListLiveData.postValue(built.getFriends());
+    }
+
+    /**
+     * @return the latest index of the friend list, never null
+     */
+    public FriendIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the uids of the friends, the same set until the friend list changes
+     */
+    public Set<String> getFriendIds() {
+        return index.getFriendIds();
+    }
+
+    public boolean isUserAFriend(String userId) {
+        return index.contains(userId);
+    }
+
+    /**
+     * Find the friends whose username or one of its words starts with the query
+     */
+    public List<Friend> searchFriends(String query) {
+        return index.search(query);
     }
 
 }
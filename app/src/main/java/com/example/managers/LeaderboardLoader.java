@@ -0,0 +1,296 @@
+package com.example.managers;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.helpers.FirebaseHelper;
+import com.example.model.StepBoardEntry;
+import com.example.util.RankedList;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LeaderboardLoader keeps the friends of the current user ranked by steps while it is started.
+ * Friends added to or removed from the friend list arrive as child events, and the stepBoard
+ * node of every friend ({username, step, updatedAt}) is listened to, so the step sync of one
+ * friend updates only that friend's row. Full user records with their own friends maps are
+ * never read.
+ * <p>
+ * The rows are kept in a {@link RankedList}, so moving a row to its new rank costs O(log n),
+ * and the listener is told exactly which row was inserted, moved, changed or removed.
+ * The first load completes when the row of every friend arrived or failed, or when the
+ * timeout is over.
+ */
+public class LeaderboardLoader {
+
+    public interface Listener {
+        void onInserted(int position);
+
+        void onMoved(int fromPosition, int toPosition);
+
+        void onChanged(int position);
+
+        void onRemoved(int position);
+
+        /**
+         * The first load is complete, later changes are still delivered
+         *
+         * @param timedOut true if some rows did not arrive before the timeout
+         * @param failed   number of rows that could not be loaded
+         */
+        void onComplete(boolean timedOut, int failed);
+    }
+
+    private static final String TAG = "LeaderboardLoader";
+    // default time after which the first load completes with the rows received so far (in milliseconds)
+    public static final long DEFAULT_TIMEOUT = 5000;
+
+    // most steps first, ties by username then uid so that the order is stable between updates
+    static final Comparator<StepBoardEntry> RANKING = new Comparator<StepBoardEntry>() {
+        @Override
+        public int compare(StepBoardEntry a, StepBoardEntry b) {
+            int steps = Long.compare(b.getStep(), a.getStep());
+            if (steps != 0) {
+                return steps;
+            }
+            String nameA = a.getUsername() == null ? "" : a.getUsername();
+            String nameB = b.getUsername() == null ? "" : b.getUsername();
+            int names = nameA.compareToIgnoreCase(nameB);
+            return names != 0 ? names : a.getUserId().compareTo(b.getUserId());
+        }
+    };
+
+    private final FirebaseHelper firebaseHelper = FirebaseHelper.getInstance();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final long timeout;
+    private final Listener listener;
+    // rows of the board in rank order, shared with the adapter
+    private final RankedList<StepBoardEntry> ranking = new RankedList<>(RANKING);
+    // current row of each uid, to find it again in the ranking
+    private final Map<String, StepBoardEntry> rows = new HashMap<>();
+    // stepBoard listener of each friend
+    private final Map<String, ValueEventListener> entryListeners = new HashMap<>();
+    // number of friend list entries of each friend, a friendship can be stored twice
+    private final Map<String, Integer> friendEntries = new HashMap<>();
+    // friends whose first row is still expected by the first load
+    private final Set<String> pending = new HashSet<>();
+    private final Runnable timeoutTask = () -> complete(true);
+    private String userId;  // user whose friends are listened to, null when stopped
+    private ChildEventListener friendListener;
+    private int generation;  // incremented by every start and stop, older results are ignored
+    private int failed;
+    private boolean friendsReceived;  // the whole friend list arrived
+    private boolean loading;  // true until the first load completes
+
+    public LeaderboardLoader(long timeout, @NonNull Listener listener) {
+        this.timeout = timeout;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the rows in rank order, updated on the main thread
+     */
+    public List<StepBoardEntry> getRanking() {
+        return ranking;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * Start listening to the friends of the current user. The rows kept from a previous start
+     * are updated in place, the rows of friends removed in between are dropped once the friend
+     * list arrived.
+     */
+    public void start() {
+        stop();
+        userId = firebaseHelper.getCurrentUserId();
+        if (userId == null) {
+            return;
+        }
+        final int startGeneration = generation;
+        loading = true;
+        friendsReceived = false;
+        failed = 0;
+        handler.postDelayed(timeoutTask, timeout);
+        friendListener = firebaseHelper.listenForFriendChanges(userId, new FirebaseHelper.FriendChangeCallback() {
+            @Override
+            public void onFriendAdded(String friendId) {
+                if (startGeneration == generation) {
+                    addFriend(friendId);
+                }
+            }
+
+            @Override
+            public void onFriendRemoved(String friendId) {
+                if (startGeneration == generation) {
+                    removeFriend(friendId);
+                }
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                Log.d(TAG, "start: failed to listen to the friend list " + e.getMessage());
+                if (startGeneration == generation) {
+                    failed++;
+                    complete(false);
+                }
+            }
+        });
+        // value events are raised after the child events of the same data, every friend is added by then
+        firebaseHelper.getFriendIds(userId, new FirebaseHelper.FriendIdsCallback() {
+            @Override
+            public void onFriendIdsReceived(Collection<String> friendIds) {
+                if (startGeneration == generation) {
+                    friendsReceived = true;
+                    dropRowsExcept(friendIds);
+                    if (pending.isEmpty()) {
+                        complete(false);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                if (startGeneration == generation) {
+                    failed++;
+                    complete(false);
+                }
+            }
+        });
+    }
+
+    private void addFriend(final String friendId) {
+        Integer entries = friendEntries.get(friendId);
+        friendEntries.put(friendId, entries == null ? 1 : entries + 1);
+        if (entries != null) {
+            return;
+        }
+        if (loading) {
+            pending.add(friendId);
+        }
+        final int startGeneration = generation;
+        entryListeners.put(friendId, firebaseHelper.listenForStepBoardEntry(friendId, new FirebaseHelper.StepBoardCallback() {
+            @Override
+            public void onEntryReceived(StepBoardEntry entry) {
+                // a row arriving after the timeout still updates the board
+                if (startGeneration == generation && entryListeners.containsKey(friendId)) {
+                    update(entry);
+                    onFirstResult(friendId);
+                }
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                if (startGeneration == generation && pending.contains(friendId)) {
+                    failed++;
+                    onFirstResult(friendId);
+                }
+            }
+        }));
+    }
+
+    private void removeFriend(String friendId) {
+        Integer entries = friendEntries.get(friendId);
+        if (entries == null) {
+            return;
+        }
+        if (entries > 1) {
+            friendEntries.put(friendId, entries - 1);
+            return;
+        }
+        friendEntries.remove(friendId);
+        firebaseHelper.removeStepBoardListener(friendId, entryListeners.remove(friendId));
+        StepBoardEntry row = rows.remove(friendId);
+        if (row != null) {
+            listener.onRemoved(ranking.delete(row));
+        }
+        onFirstResult(friendId);
+    }
+
+    private void onFirstResult(String friendId) {
+        if (pending.remove(friendId) && pending.isEmpty() && friendsReceived) {
+            complete(false);
+        }
+    }
+
+    /**
+     * Insert or move the row of a user to its rank
+     */
+    private void update(StepBoardEntry entry) {
+        StepBoardEntry previous = rows.put(entry.getUserId(), entry);
+        int from = previous == null ? -1 : ranking.delete(previous);
+        int to = ranking.insert(entry);
+        if (from < 0) {
+            listener.onInserted(to);
+            return;
+        }
+        if (from != to) {
+            listener.onMoved(from, to);
+        }
+        if (previous.getStep().equals(entry.getStep()) && equal(previous.getUsername(), entry.getUsername())) {
+            return;  // nothing shown changed, e.g. a row delivered again after a restart
+        }
+        listener.onChanged(to);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    // rows kept from a previous start whose friend is no longer in the list
+    private void dropRowsExcept(Collection<String> friendIds) {
+        Set<String> friends = new HashSet<>(friendIds);
+        Iterator<Map.Entry<String, StepBoardEntry>> iterator = rows.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, StepBoardEntry> row = iterator.next();
+            if (!friends.contains(row.getKey())) {
+                iterator.remove();
+                listener.onRemoved(ranking.delete(row.getValue()));
+            }
+        }
+    }
+
+    private void complete(boolean timedOut) {
+        if (!loading) {
+            return;
+        }
+        loading = false;
+        pending.clear();
+        handler.removeCallbacks(timeoutTask);
+        listener.onComplete(timedOut, failed);
+    }
+
+    /**
+     * Stop listening, the rows are kept and the results that arrive later are ignored
+     */
+    public void stop() {
+        generation++;
+        loading = false;
+        pending.clear();
+        handler.removeCallbacks(timeoutTask);
+        if (friendListener != null) {
+            firebaseHelper.removeFriendChangeListener(userId, friendListener);
+            friendListener = null;
+        }
+        for (Map.Entry<String, ValueEventListener> entry : entryListeners.entrySet()) {
+            firebaseHelper.removeStepBoardListener(entry.getKey(), entry.getValue());
+        }
+        entryListeners.clear();
+        friendEntries.clear();
+        userId = null;
+    }
+}
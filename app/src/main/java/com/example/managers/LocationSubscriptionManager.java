@@ -0,0 +1,240 @@
+package com.example.managers;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.Observer;
+
+import com.example.helpers.FirebaseHelper;
+import com.example.helpers.LocationCodec;
+import com.example.model.Friend;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LocationSubscriptionManager keeps one ValueEventListener per tracked user on
+ * locations/{uid}, instead of one listener on the whole locations node.
+ * The set of tracked users follows FriendManager's friend list (plus the current user),
+ * so a device only downloads the positions it actually shows on the map.
+ * While watching is enabled, the current user is also registered as a watcher of every
+ * tracked friend, which lets their LocationService switch to live updates.
+ */
+public class LocationSubscriptionManager implements Observer<List<Friend>> {
+
+    public interface LocationUpdateCallback {
+        void onLocationChanged(@NonNull DataSnapshot userSnapshot);
+
+        void onSubscriptionRemoved(@NonNull String userId);
+
+        void onFailed(Exception e);
+    }
+
+    private static final String TAG = "LocationSubscriptions";
+    // reference to the locations node, each tracked user is a child of it
+    private final DatabaseReference locationsRef;
+    // uid of the current user, always subscribed so the user can see themselves
+    private final String currentUserId;
+    private final LocationUpdateCallback callback;
+    // active listeners keyed by the uid they are attached to
+    private final Map<String, ValueEventListener> listeners = new HashMap<>();
+    // approximate bytes received per uid since the listener was attached
+    private final Map<String, Long> bytesReceived = new HashMap<>();
+    // number of snapshots received per uid since the listener was attached
+    private final Map<String, Integer> updatesReceived = new HashMap<>();
+    private final FirebaseHelper firebaseHelper = FirebaseHelper.getInstance();
+    private FriendManager friendManager;
+    // whether the map is showing and the tracked friends should upload at the live rate
+    private boolean watching;
+
+    public LocationSubscriptionManager(DatabaseReference locationsRef, String currentUserId, LocationUpdateCallback callback) {
+        this.locationsRef = locationsRef;
+        this.currentUserId = currentUserId;
+        this.callback = callback;
+    }
+
+    /**
+     * Start following the friend list, subscriptions are updated every time it changes
+     *
+     * @param owner lifecycle owner used to observe the friend list
+     */
+    public void start(@NonNull LifecycleOwner owner) {
+        friendManager = FriendManager.getInstance();
+        friendManager.getFriendsList().observe(owner, this);
+    }
+
+    /**
+     * Stop following the friend list and detach every listener
+     */
+    public void stop() {
+        setWatching(false);
+        if (friendManager != null) {
+            friendManager.getFriendsList().removeObserver(this);
+            friendManager = null;
+        }
+        syncSubscriptions(new ArrayList<>());
+    }
+
+    /**
+     * Register or unregister the current user as a watcher of every tracked friend
+     *
+     * @param watching true while the locations are shown to the user
+     */
+    public void setWatching(boolean watching) {
+        if (this.watching == watching) {
+            return;
+        }
+        this.watching = watching;
+        for (String userId : listeners.keySet()) {
+            updateWatcher(userId, watching);
+        }
+    }
+
+    private void updateWatcher(String userId, boolean watching) {
+        if (userId.equals(currentUserId)) {
+            return; // our own location is not uploaded faster for ourselves
+        }
+        if (watching) {
+            firebaseHelper.registerWatcher(userId);
+        } else {
+            firebaseHelper.unregisterWatcher(userId);
+        }
+    }
+
+    @Override
+    public void onChanged(List<Friend> friends) {
+        // the uid set cached by the friend index, not rebuilt from the list
+        syncSubscriptions(friendManager != null ? friendManager.getFriendIds() : new HashSet<String>());
+    }
+
+    /**
+     * Attach listeners for new uids and detach the ones that are no longer tracked.
+     * The current user is kept as long as the manager is started.
+     *
+     * @param userIds the uids that should be tracked
+     */
+    public void syncSubscriptions(Collection<String> userIds) {
+        Set<String> wanted = new HashSet<>(userIds);
+        if (currentUserId != null && friendManager != null) {
+            wanted.add(currentUserId);
+        }
+
+        Iterator<Map.Entry<String, ValueEventListener>> iterator = listeners.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, ValueEventListener> entry = iterator.next();
+            String userId = entry.getKey();
+            if (!wanted.contains(userId)) {
+                locationsRef.child(userId).removeEventListener(entry.getValue());
+                iterator.remove();
+                if (watching) {
+                    updateWatcher(userId, false);
+                }
+                bytesReceived.remove(userId);
+                updatesReceived.remove(userId);
+                callback.onSubscriptionRemoved(userId);
+            }
+        }
+
+        for (String userId : wanted) {
+            if (!listeners.containsKey(userId)) {
+                subscribe(userId);
+            }
+        }
+        Log.d(TAG, "syncSubscriptions: " + listeners.size() + " active listeners");
+    }
+
+    private void subscribe(String userId) {
+        ValueEventListener listener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                if (!listeners.containsKey(userId)) {
+                    return; // detached while the event was in flight
+                }
+                Long bytes = bytesReceived.get(userId);
+                bytesReceived.put(userId, (bytes != null ? bytes : 0L) + LocationCodec.estimateJsonSize(dataSnapshot.getValue()));
+                Integer updates = updatesReceived.get(userId);
+                updatesReceived.put(userId, (updates != null ? updates : 0) + 1);
+                if (dataSnapshot.exists()) {
+                    callback.onLocationChanged(dataSnapshot);
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.d(TAG, "onCancelled: " + userId + " " + databaseError.getMessage());
+                callback.onFailed(databaseError.toException());
+            }
+        };
+        listeners.put(userId, listener);
+        bytesReceived.put(userId, 0L);
+        updatesReceived.put(userId, 0);
+        locationsRef.child(userId).addValueEventListener(listener);
+        if (watching) {
+            updateWatcher(userId, true);
+        }
+    }
+
+    /**
+     * Get the number of locations/{uid} listeners currently attached
+     *
+     * @return the number of active listeners
+     */
+    public int getActiveListenerCount() {
+        return listeners.size();
+    }
+
+    /**
+     * Get the approximate payload size received by the listener of a user
+     *
+     * @param userId the uid of the tracked user
+     * @return the bytes received, 0 if the user is not tracked
+     */
+    public long getBytesReceived(String userId) {
+        Long bytes = bytesReceived.get(userId);
+        return bytes != null ? bytes : 0L;
+    }
+
+    /**
+     * Get the approximate payload size received by all active listeners
+     *
+     * @return the total bytes received
+     */
+    public long getTotalBytesReceived() {
+        long total = 0;
+        for (Long bytes : bytesReceived.values()) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * Get a copy of the bytes received per tracked uid
+     *
+     * @return map of uid to bytes received
+     */
+    public Map<String, Long> getBytesReceivedPerListener() {
+        return new HashMap<>(bytesReceived);
+    }
+
+    /**
+     * Get the number of snapshots received by the listener of a user
+     *
+     * @param userId the uid of the tracked user
+     * @return the number of updates, 0 if the user is not tracked
+     */
+    public int getUpdatesReceived(String userId) {
+        Integer updates = updatesReceived.get(userId);
+        return updates != null ? updates : 0;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.model;
+
+import com.google.firebase.database.Exclude;
+
+/**
+ * Leaderboard projection of a user, stored at stepBoard/{uid}. It only holds what the
+ * leaderboard shows, so a friend's row is read without their whole user record.
+ */
+public class StepBoardEntry {
+    @Exclude
+    public String userId;
+    public String username;
+    public Long step;
+    public Long updatedAt;
+
+    public StepBoardEntry() {
+        // Default constructor is required for Firebase
+    }
+
+    public StepBoardEntry(String userId, String username, Long step) {
+        this.userId = userId;
+        this.username = username;
+        this.step = step;
+    }
+
+    @Exclude
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public Long getStep() {
+        return step == null ? 0 : step;
+    }
+
+    public void setStep(Long step) {
+        this.step = step;
+    }
+
+    public Long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.services;
+
+/**
+ * Default sampling policy: while nobody is watching the background tier is used,
+ * otherwise speed bands pick the tier, a low battery caps it and a stationary user
+ * drops to the low power tier. A new tier has to be selected on consecutive fixes
+ * before it is returned, so noisy speeds around a band boundary do not restart
+ * location updates on every fix. Watchers coming and going switch immediately.
+ */
+public class AdaptiveSamplingPolicy implements LocationSamplingPolicy {
+    // speed bands (in m/s)
+    private static final float FAST_SPEED = 8.0f;
+    private static final float MOVING_SPEED = 2.0f;
+    // below this battery level (in percent) only the low battery tier is used
+    private static final int LOW_BATTERY_LEVEL = 20;
+    // below this battery level (in percent) the fastest tier is not used
+    private static final int MEDIUM_BATTERY_LEVEL = 40;
+    // number of consecutive fixes a new tier has to be selected before switching
+    private static final int CONFIRMATIONS = 2;
+
+    private SamplingTier currentTier = SamplingTier.BACKGROUND;
+    private SamplingTier candidateTier;
+    private int candidateCount;
+    private boolean lastWatched;
+
+    @Override
+    public SamplingTier selectTier(float speed, int batteryLevel, boolean charging, boolean stationary, boolean watched) {
+        SamplingTier tier = evaluate(speed, batteryLevel, charging, stationary, watched);
+        if (watched != lastWatched) {
+            // someone opened or closed the map, do not wait for more fixes
+            lastWatched = watched;
+            currentTier = tier;
+        }
+        if (tier == currentTier) {
+            candidateTier = null;
+            candidateCount = 0;
+            return currentTier;
+        }
+        if (tier != candidateTier) {
+            candidateTier = tier;
+            candidateCount = 0;
+        }
+        if (++candidateCount >= CONFIRMATIONS) {
+            currentTier = tier;
+            candidateTier = null;
+            candidateCount = 0;
+        }
+        return currentTier;
+    }
+
+    private SamplingTier evaluate(float speed, int batteryLevel, boolean charging, boolean stationary, boolean watched) {
+        if (!charging && batteryLevel > 0 && batteryLevel <= LOW_BATTERY_LEVEL) {
+            return SamplingTier.LOW_BATTERY;
+        }
+        if (!watched) {
+            return SamplingTier.BACKGROUND;
+        }
+        if (stationary) {
+            return SamplingTier.STATIONARY;
+        }
+        if (speed >= FAST_SPEED) {
+            return charging || batteryLevel > MEDIUM_BATTERY_LEVEL ? SamplingTier.MOVING_FAST : SamplingTier.MOVING;
+        }
+        if (speed >= MOVING_SPEED) {
+            return SamplingTier.MOVING;
+        }
+        return SamplingTier.WALKING;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.services;
+
+import com.example.helpers.GeoHash;
+
+/**
+ * Constant-velocity Kalman filter for location fixes.
+ * <p>
+ * Positions are projected on a local plane (in meters) around the first fix, and each axis
+ * is filtered independently with a [position, velocity] state. The measurement noise comes
+ * from the reported accuracy, the process noise models random accelerations. Fixes whose
+ * innovation is too unlikely given the predicted state are rejected as outliers; after a few
+ * consecutive rejections the filter assumes the user really moved and restarts from the fix.
+ */
+public class KalmanLocationFilter implements LocationFilter {
+    private static final double METERS_PER_DEGREE = GeoHash.EARTH_RADIUS * Math.PI / 180.0;
+    // spectral density of the acceleration noise (in m^2/s^3)
+    private static final double DEFAULT_ACCELERATION_NOISE = 0.1;
+    // initial velocity variance (in m^2/s^2)
+    private static final double INITIAL_VELOCITY_VARIANCE = 25.0;
+    // chi-square threshold with 2 degrees of freedom (99.9%)
+    private static final double OUTLIER_THRESHOLD = 13.8;
+    // consecutive outliers after which the filter restarts from the fix
+    private static final int MAX_REJECTIONS = 3;
+    // reported accuracies below this are not trusted (in meters)
+    private static final float MIN_ACCURACY = 1.0f;
+
+    private final double accelerationNoise;
+    // east and north axes, filtered independently
+    private final Axis east = new Axis();
+    private final Axis north = new Axis();
+    private boolean initialized;
+    private long lastTimestamp;
+    // projection origin
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerDegreeLongitude;
+    private int rejections;
+    private int rejectedCount;
+
+    public KalmanLocationFilter() {
+        this(DEFAULT_ACCELERATION_NOISE);
+    }
+
+    /**
+     * @param accelerationNoise spectral density of the acceleration noise (in m^2/s^3),
+     *                          lower values smooth more but lag behind turns
+     */
+    public KalmanLocationFilter(double accelerationNoise) {
+        this.accelerationNoise = accelerationNoise;
+    }
+
+    @Override
+    public boolean update(long timestamp, double latitude, double longitude, float accuracy) {
+        double variance = Math.max(accuracy, MIN_ACCURACY);
+        variance *= variance;
+        if (!initialized) {
+            start(timestamp, latitude, longitude, variance);
+            return true;
+        }
+
+        double dt = (timestamp - lastTimestamp) / 1000.0;
+        if (dt > 0) {
+            east.predict(dt, accelerationNoise);
+            north.predict(dt, accelerationNoise);
+            lastTimestamp = timestamp;
+        }
+
+        double eastInnovation = (longitude - originLongitude) * metersPerDegreeLongitude - east.position;
+        double northInnovation = (latitude - originLatitude) * METERS_PER_DEGREE - north.position;
+        double eastVariance = east.pp + variance;
+        double northVariance = north.pp + variance;
+        if (eastInnovation * eastInnovation / eastVariance
+                + northInnovation * northInnovation / northVariance > OUTLIER_THRESHOLD) {
+            rejectedCount++;
+            if (++rejections >= MAX_REJECTIONS) {
+                start(timestamp, latitude, longitude, variance);
+                return true;
+            }
+            return false;
+        }
+        rejections = 0;
+        east.correct(eastInnovation, eastVariance);
+        north.correct(northInnovation, northVariance);
+        return true;
+    }
+
+    private void start(long timestamp, double latitude, double longitude, double variance) {
+        initialized = true;
+        rejections = 0;
+        lastTimestamp = timestamp;
+        originLatitude = latitude;
+        originLongitude = longitude;
+        metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        east.start(variance);
+        north.start(variance);
+    }
+
+    @Override
+    public double getLatitude() {
+        return originLatitude + north.position / METERS_PER_DEGREE;
+    }
+
+    @Override
+    public double getLongitude() {
+        return originLongitude + east.position / metersPerDegreeLongitude;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+        rejections = 0;
+    }
+
+    /**
+     * @return the number of fixes rejected as outliers since the filter was created
+     */
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * [position, velocity] state of one axis with its covariance [[pp, pv], [pv, vv]]
+     */
+    private static class Axis {
+        double position;
+        double velocity;
+        double pp;
+        double pv;
+        double vv;
+
+        void start(double variance) {
+            position = 0;
+            velocity = 0;
+            pp = variance;
+            pv = 0;
+            vv = INITIAL_VELOCITY_VARIANCE;
+        }
+
+        void predict(double dt, double accelerationNoise) {
+            double dt2 = dt * dt;
+            position += velocity * dt;
+            pp += 2 * dt * pv + dt2 * vv + accelerationNoise * dt2 * dt / 3;
+            pv += dt * vv + accelerationNoise * dt2 / 2;
+            vv += accelerationNoise * dt;
+        }
+
+        void correct(double innovation, double innovationVariance) {
+            double kp = pp / innovationVariance;
+            double kv = pv / innovationVariance;
+            position += kp * innovation;
+            velocity += kv * innovation;
+            vv -= kv * pv;
+            pv -= kp * pv;
+            pp -= kp * pp;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.services;
+
+/**
+ * A LocationFilter smooths the raw fixes before LocationService decides whether to upload them.
+ * The filtered position is read with the getters after each accepted update, so the
+ * filter does not allocate per fix.
+ */
+public interface LocationFilter {
+
+    /**
+     * Feed a raw fix to the filter
+     *
+     * @param timestamp time of the fix (in milliseconds)
+     * @param latitude  raw latitude (in degrees)
+     * @param longitude raw longitude (in degrees)
+     * @param accuracy  reported horizontal accuracy (in meters)
+     * @return false if the fix was rejected as an outlier, the filtered position is unchanged
+     */
+    boolean update(long timestamp, double latitude, double longitude, float accuracy);
+
+    /**
+     * @return the filtered latitude (in degrees)
+     */
+    double getLatitude();
+
+    /**
+     * @return the filtered longitude (in degrees)
+     */
+    double getLongitude();
+
+    /**
+     * Forget the current state, the next fix is taken as is
+     */
+    void reset();
+}
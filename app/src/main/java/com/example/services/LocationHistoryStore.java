@@ -0,0 +1,290 @@
+package com.example.services;
+
+import com.example.model.LocationData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LocationHistoryStore is an on-device, append-only time series of the fixes accepted
+ * by LocationService. There is one segment file per UTC day, read and written through
+ * memory-mapped I/O, made of fixed-width records sorted by timestamp.
+ * <p>
+ * Segment layout: a header (magic, record count) followed by records of
+ * {@link #RECORD_SIZE} bytes: timestamp (long), latitude (double), longitude (double),
+ * speed (float), battery level (int). Segments older than the retention period are deleted.
+ */
+public class LocationHistoryStore {
+
+    /**
+     * Receives the records of a range query without allocating an object per record
+     */
+    public interface RecordVisitor {
+        void onRecord(long timestamp, double latitude, double longitude, float speed, int batteryLevel);
+    }
+
+    private static final int MAGIC = 0x4C484953; // "LHIS"
+    private static final int HEADER_SIZE = 8;
+    static final int RECORD_SIZE = 8 + 8 + 8 + 4 + 4;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    // the active segment grows by this many records at a time
+    private static final int GROWTH_RECORDS = 4096;
+    private static final String SUFFIX = ".seg";
+
+    private final File directory;
+    private final int retentionDays;
+    // read-only mappings of sealed segments, keyed by epoch day
+    private final Map<Long, MappedByteBuffer> sealedSegments = new HashMap<>();
+    // active (writable) segment
+    private long activeDay = -1;
+    private RandomAccessFile activeFile;
+    private MappedByteBuffer activeBuffer;
+    private int activeCount;
+    private long lastTimestamp = Long.MIN_VALUE;
+    // range of days that have a segment file, queries never look outside of it
+    private long firstDay = Long.MAX_VALUE;
+    private long lastDay = Long.MIN_VALUE;
+
+    /**
+     * @param directory     directory holding the segment files, created if needed
+     * @param retentionDays number of days of history to keep
+     */
+    public LocationHistoryStore(File directory, int retentionDays) {
+        this.directory = directory;
+        this.retentionDays = retentionDays;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + directory);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                long day = segmentDay(file);
+                if (day != Long.MIN_VALUE) {
+                    firstDay = Math.min(firstDay, day);
+                    lastDay = Math.max(lastDay, day);
+                }
+            }
+        }
+    }
+
+    /**
+     * Append a fix, records must arrive in timestamp order, older ones are ignored
+     *
+     * @return true if the fix was stored
+     */
+    public synchronized boolean append(long timestamp, double latitude, double longitude, float speed, int batteryLevel) throws IOException {
+        long day = Math.floorDiv(timestamp, DAY);
+        if (day != activeDay) {
+            if (day < activeDay) {
+                return false;
+            }
+            openActive(day);
+        }
+        if (timestamp < lastTimestamp) {
+            return false;
+        }
+        int offset = HEADER_SIZE + activeCount * RECORD_SIZE;
+        if (offset + RECORD_SIZE > activeBuffer.capacity()) {
+            mapActive(activeBuffer.capacity() + GROWTH_RECORDS * RECORD_SIZE);
+        }
+        activeBuffer.putLong(offset, timestamp);
+        activeBuffer.putDouble(offset + 8, latitude);
+        activeBuffer.putDouble(offset + 16, longitude);
+        activeBuffer.putFloat(offset + 24, speed);
+        activeBuffer.putInt(offset + 28, batteryLevel);
+        // the count is written last, a crash in between only loses this record
+        activeBuffer.putInt(4, ++activeCount);
+        lastTimestamp = timestamp;
+        return true;
+    }
+
+    /**
+     * Visit every record with from <= timestamp <= to, in timestamp order
+     *
+     * @return the number of records visited
+     */
+    public synchronized int query(long from, long to, RecordVisitor visitor) throws IOException {
+        if (from > to) {
+            return 0;
+        }
+        int visited = 0;
+        long endDay = Math.min(Math.floorDiv(to, DAY), lastDay);
+        for (long day = Math.max(Math.floorDiv(from, DAY), firstDay); day <= endDay; day++) {
+            MappedByteBuffer buffer;
+            int count;
+            if (day == activeDay) {
+                buffer = activeBuffer;
+                count = activeCount;
+            } else {
+                buffer = sealedSegment(day);
+                if (buffer == null) {
+                    continue;
+                }
+                count = buffer.getInt(4);
+            }
+            for (int i = lowerBound(buffer, count, from); i < count; i++) {
+                int offset = HEADER_SIZE + i * RECORD_SIZE;
+                long timestamp = buffer.getLong(offset);
+                if (timestamp > to) {
+                    break;
+                }
+                visitor.onRecord(timestamp,
+                        buffer.getDouble(offset + 8),
+                        buffer.getDouble(offset + 16),
+                        buffer.getFloat(offset + 24),
+                        buffer.getInt(offset + 28));
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Get every record with from <= timestamp <= to as LocationData objects
+     */
+    public List<LocationData> query(long from, long to) throws IOException {
+        List<LocationData> result = new ArrayList<>();
+        query(from, to, (timestamp, latitude, longitude, speed, batteryLevel) ->
+                result.add(new LocationData(latitude, longitude, speed, timestamp, batteryLevel)));
+        return result;
+    }
+
+    /**
+     * Delete the segments that are older than the retention period
+     *
+     * @param now the current time (in milliseconds)
+     * @return the number of deleted segments
+     */
+    public synchronized int compact(long now) {
+        long oldestDay = Math.floorDiv(now, DAY) - retentionDays + 1;
+        int deleted = 0;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        for (File file : files) {
+            long day = segmentDay(file);
+            if (day != Long.MIN_VALUE && day < oldestDay && day != activeDay && file.delete()) {
+                deleted++;
+            }
+        }
+        firstDay = Math.max(firstDay, oldestDay);
+        Iterator<Long> iterator = sealedSegments.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() < oldestDay) {
+                iterator.remove();
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Seal the active segment and release it
+     */
+    public synchronized void close() throws IOException {
+        sealActive();
+        sealedSegments.clear();
+    }
+
+    private void openActive(long day) throws IOException {
+        sealActive();
+        File file = segmentFile(day);
+        activeFile = new RandomAccessFile(file, "rw");
+        activeDay = day;
+        firstDay = Math.min(firstDay, day);
+        lastDay = Math.max(lastDay, day);
+        sealedSegments.remove(day);
+        long length = activeFile.length();
+        mapActive(Math.max(length, HEADER_SIZE + (long) GROWTH_RECORDS * RECORD_SIZE));
+        if (length < HEADER_SIZE || activeBuffer.getInt(0) != MAGIC) {
+            activeBuffer.putInt(0, MAGIC);
+            activeBuffer.putInt(4, 0);
+        }
+        activeCount = activeBuffer.getInt(4);
+        int maxCount = (activeBuffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        if (activeCount < 0 || activeCount > maxCount) {
+            activeCount = 0;
+            activeBuffer.putInt(4, 0);
+        }
+        lastTimestamp = activeCount == 0 ? Long.MIN_VALUE
+                : activeBuffer.getLong(HEADER_SIZE + (activeCount - 1) * RECORD_SIZE);
+        compact(day * DAY);
+    }
+
+    private void mapActive(long size) throws IOException {
+        activeBuffer = activeFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void sealActive() throws IOException {
+        if (activeFile == null) {
+            return;
+        }
+        activeBuffer.force();
+        activeBuffer = null;
+        // drop the preallocated space that was never written
+        activeFile.setLength(HEADER_SIZE + (long) activeCount * RECORD_SIZE);
+        activeFile.close();
+        activeFile = null;
+        activeDay = -1;
+        activeCount = 0;
+    }
+
+    private MappedByteBuffer sealedSegment(long day) throws IOException {
+        MappedByteBuffer buffer = sealedSegments.get(day);
+        if (buffer != null) {
+            return buffer;
+        }
+        File file = segmentFile(day);
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        int maxCount = (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) < 0 || buffer.getInt(4) > maxCount) {
+            return null;
+        }
+        sealedSegments.put(day, buffer);
+        return buffer;
+    }
+
+    // index of the first record with a timestamp >= from
+    private static int lowerBound(MappedByteBuffer buffer, int count, long from) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(HEADER_SIZE + mid * RECORD_SIZE) < from) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private File segmentFile(long day) {
+        return new File(directory, day + SUFFIX);
+    }
+
+    private static long segmentDay(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SUFFIX)) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
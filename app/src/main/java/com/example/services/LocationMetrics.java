@@ -0,0 +1,293 @@
+package com.example.services;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * LocationMetrics is the metrics registry of the location pipeline: counters, gauges and an
+ * upload latency histogram, each kept both since the start of the process and over a rolling
+ * one-hour window of one-minute slots. The report is available as text and as JSON, from the
+ * debug screen and from {@code adb shell dumpsys activity service LocationService}.
+ */
+public class LocationMetrics {
+
+    public enum Counter {
+        FIXES_RECEIVED("fixes received"),
+        FIXES_REJECTED("fixes rejected as outliers"),
+        FIXES_GATED("fixes below the distance/time thresholds"),
+        FIXES_ACCEPTED("fixes accepted for upload"),
+        UPLOADS_SUCCEEDED("uploads succeeded"),
+        UPLOADS_FAILED("uploads failed"),
+        RECORDS_UPLOADED("records uploaded"),
+        FIXES_REPLACED("fixes replaced before upload"),
+        BYTES_SENT("bytes sent");
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    public enum Gauge {
+        PENDING_UPLOADS("fixes waiting for upload"),
+        WATCHERS("watchers"),
+        SAMPLING_INTERVAL("sampling interval (ms)");
+
+        private final String label;
+
+        Gauge(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final long MINUTE = 60 * 1000;
+    // number of one-minute slots in the rolling window
+    private static final int WINDOW_MINUTES = 60;
+    // upper bounds of the latency histogram buckets (in milliseconds), the last bucket is unbounded
+    private static final long[] LATENCY_BOUNDS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+    private static final int LATENCY_BUCKETS = LATENCY_BOUNDS.length + 1;
+
+    private static volatile LocationMetrics instance;
+
+    private final long startTime;
+    // totals since the start of the process
+    private final long[] totals = new long[Counter.values().length];
+    private final long[] latencyTotals = new long[LATENCY_BUCKETS];
+    private final long[] gauges = new long[Gauge.values().length];
+    // rolling window, slot i holds the minute slotMinutes[i]
+    private final long[] slotMinutes = new long[WINDOW_MINUTES];
+    private final long[][] slotCounters = new long[WINDOW_MINUTES][Counter.values().length];
+    private final long[][] slotLatencies = new long[WINDOW_MINUTES][LATENCY_BUCKETS];
+
+    LocationMetrics(long startTime) {
+        this.startTime = startTime;
+        Arrays.fill(slotMinutes, -1);
+    }
+
+    public static LocationMetrics getInstance() {
+        if (instance == null) {
+            synchronized (LocationMetrics.class) {
+                if (instance == null) {
+                    instance = new LocationMetrics(System.currentTimeMillis());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public void increment(Counter counter) {
+        add(counter, 1, System.currentTimeMillis());
+    }
+
+    public void add(Counter counter, long amount) {
+        add(counter, amount, System.currentTimeMillis());
+    }
+
+    synchronized void add(Counter counter, long amount, long now) {
+        totals[counter.ordinal()] += amount;
+        slotCounters[slot(now)][counter.ordinal()] += amount;
+    }
+
+    public void recordUploadLatency(long latency) {
+        recordUploadLatency(latency, System.currentTimeMillis());
+    }
+
+    synchronized void recordUploadLatency(long latency, long now) {
+        int bucket = bucket(latency);
+        latencyTotals[bucket]++;
+        slotLatencies[slot(now)][bucket]++;
+    }
+
+    public synchronized void setGauge(Gauge gauge, long value) {
+        gauges[gauge.ordinal()] = value;
+    }
+
+    // slot of the current minute, cleared when it is reused for a new minute
+    private int slot(long now) {
+        long minute = now / MINUTE;
+        int slot = (int) (minute % WINDOW_MINUTES);
+        if (slotMinutes[slot] != minute) {
+            slotMinutes[slot] = minute;
+            Arrays.fill(slotCounters[slot], 0);
+            Arrays.fill(slotLatencies[slot], 0);
+        }
+        return slot;
+    }
+
+    private static int bucket(long latency) {
+        for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+            if (latency <= LATENCY_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return LATENCY_BOUNDS.length;
+    }
+
+    /**
+     * Get the total of a counter since the start of the process
+     */
+    public synchronized long getTotal(Counter counter) {
+        return totals[counter.ordinal()];
+    }
+
+    /**
+     * Get the sum of a counter over the last hour
+     */
+    public long getLastHour(Counter counter) {
+        return getLastMinutes(counter, WINDOW_MINUTES, System.currentTimeMillis());
+    }
+
+    /**
+     * Get the sum of a counter over the last minutes, including the current one
+     */
+    synchronized long getLastMinutes(Counter counter, int minutes, long now) {
+        long currentMinute = now / MINUTE;
+        long sum = 0;
+        for (int i = 0; i < WINDOW_MINUTES; i++) {
+            if (slotMinutes[i] >= 0 && currentMinute - slotMinutes[i] < minutes) {
+                sum += slotCounters[i][counter.ordinal()];
+            }
+        }
+        return sum;
+    }
+
+    public synchronized long getGauge(Gauge gauge) {
+        return gauges[gauge.ordinal()];
+    }
+
+    // upload latency histogram over the last hour
+    synchronized long[] lastHourLatencies(long now) {
+        long currentMinute = now / MINUTE;
+        long[] histogram = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < WINDOW_MINUTES; i++) {
+            if (slotMinutes[i] >= 0 && currentMinute - slotMinutes[i] < WINDOW_MINUTES) {
+                for (int j = 0; j < LATENCY_BUCKETS; j++) {
+                    histogram[j] += slotLatencies[i][j];
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Estimate a percentile from a histogram, as the upper bound of the bucket that contains it
+     *
+     * @return the percentile (in milliseconds), -1 if the histogram is empty or the percentile is in the unbounded bucket
+     */
+    static long percentile(long[] histogram, double percentile) {
+        long count = 0;
+        for (long value : histogram) {
+            count += value;
+        }
+        if (count == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return i < LATENCY_BOUNDS.length ? LATENCY_BOUNDS[i] : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static String bucketLabel(int bucket) {
+        return bucket < LATENCY_BOUNDS.length ? "<=" + LATENCY_BOUNDS[bucket] : ">" + LATENCY_BOUNDS[LATENCY_BOUNDS.length - 1];
+    }
+
+    private static String formatPercentile(long value) {
+        return value < 0 ? "n/a" : "<=" + value + " ms";
+    }
+
+    /**
+     * Build a human readable report
+     */
+    public String toText() {
+        long now = System.currentTimeMillis();
+        long[] latencyHour = lastHourLatencies(now);
+        long[] latencyTotal;
+        StringBuilder builder = new StringBuilder();
+        synchronized (this) {
+            latencyTotal = latencyTotals.clone();
+            builder.append("Location pipeline, up ").append((now - startTime) / MINUTE).append(" min\n\n");
+            builder.append(String.format(Locale.US, "%-42s %10s %10s %10s%n", "counter", "last min", "last hour", "total"));
+            for (Counter counter : Counter.values()) {
+                builder.append(String.format(Locale.US, "%-42s %10d %10d %10d%n", counter.getLabel(),
+                        getLastMinutes(counter, 1, now), getLastMinutes(counter, WINDOW_MINUTES, now), totals[counter.ordinal()]));
+            }
+            builder.append('\n');
+            for (Gauge gauge : Gauge.values()) {
+                builder.append(String.format(Locale.US, "%-42s %10d%n", gauge.getLabel(), gauges[gauge.ordinal()]));
+            }
+        }
+        builder.append("\nupload latency (ms)\n");
+        builder.append(String.format(Locale.US, "%-42s %10s %10s%n", "bucket", "last hour", "total"));
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            builder.append(String.format(Locale.US, "%-42s %10d %10d%n", bucketLabel(i), latencyHour[i], latencyTotal[i]));
+        }
+        builder.append(String.format(Locale.US, "p50 %s, p95 %s (last hour)%n",
+                formatPercentile(percentile(latencyHour, 0.5)), formatPercentile(percentile(latencyHour, 0.95))));
+        return builder.toString();
+    }
+
+    /**
+     * Build a JSON report, keys are the lower case counter and gauge names
+     */
+    public String toJson() {
+        long now = System.currentTimeMillis();
+        long[] latencyHour = lastHourLatencies(now);
+        StringBuilder builder = new StringBuilder();
+        synchronized (this) {
+            builder.append("{\"timestamp\":").append(now)
+                    .append(",\"uptimeMs\":").append(now - startTime)
+                    .append(",\"counters\":{");
+            for (Counter counter : Counter.values()) {
+                if (counter.ordinal() > 0) {
+                    builder.append(',');
+                }
+                builder.append('"').append(counter.name().toLowerCase(Locale.US)).append("\":{")
+                        .append("\"lastMinute\":").append(getLastMinutes(counter, 1, now))
+                        .append(",\"lastHour\":").append(getLastMinutes(counter, WINDOW_MINUTES, now))
+                        .append(",\"total\":").append(totals[counter.ordinal()]).append('}');
+            }
+            builder.append("},\"gauges\":{");
+            for (Gauge gauge : Gauge.values()) {
+                if (gauge.ordinal() > 0) {
+                    builder.append(',');
+                }
+                builder.append('"').append(gauge.name().toLowerCase(Locale.US)).append("\":").append(gauges[gauge.ordinal()]);
+            }
+            builder.append("},\"uploadLatencyMs\":{\"bounds\":[");
+            for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+                builder.append(i > 0 ? "," : "").append(LATENCY_BOUNDS[i]);
+            }
+            builder.append("],\"lastHour\":");
+            appendArray(builder, latencyHour);
+            builder.append(",\"total\":");
+            appendArray(builder, latencyTotals);
+            builder.append(",\"p50\":").append(percentile(latencyHour, 0.5))
+                    .append(",\"p95\":").append(percentile(latencyHour, 0.95));
+            builder.append("}}");
+        }
+        return builder.toString();
+    }
+
+    private static void appendArray(StringBuilder builder, long[] values) {
+        builder.append('[');
+        for (int i = 0; i < values.length; i++) {
+            builder.append(i > 0 ? "," : "").append(values[i]);
+        }
+        builder.append(']');
+    }
+}
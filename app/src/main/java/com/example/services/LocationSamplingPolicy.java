@@ -0,0 +1,21 @@
+package com.example.services;
+
+/**
+ * A LocationSamplingPolicy decides how LocationService samples and uploads locations.
+ * It is called on every location fix and when the number of watchers changes, LocationService only re-issues its location
+ * request when the returned tier changes.
+ */
+public interface LocationSamplingPolicy {
+
+    /**
+     * Pick the sampling tier for the current device state
+     *
+     * @param speed        speed of the last fix (in m/s)
+     * @param batteryLevel battery level (in percent)
+     * @param charging     whether the device is charging
+     * @param stationary   whether the user has not moved for a while
+     * @param watched      whether a friend is currently watching the user's location
+     * @return the tier to use
+     */
+    SamplingTier selectTier(float speed, int batteryLevel, boolean charging, boolean stationary, boolean watched);
+}
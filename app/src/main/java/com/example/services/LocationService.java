@@ -12,6 +12,7 @@ import android.os.BatteryManager;
 import android.os.Build;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -22,16 +23,40 @@ import androidx.core.app.NotificationCompat;
 import com.example.helpers.FirebaseHelper;
 import com.example.model.LocationData;
 import com.google.android.gms.location.*;
+import com.google.firebase.database.ValueEventListener;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
 
 public class LocationService extends Service {
     private final String TAG = "LocationServiceLog";
     private FusedLocationProviderClient myFusedLocationClient; // location client to get location updates
     private LocationCallback myLocationCallback; // location callback to get location updates
-    private Location lastLocation;  // last location of the user
-    private long lastUpdateTime;  // last time the location is updated (in milliseconds)
-    private static final float MIN_DISTANCE = 10;  // minimum distance threshold (in meters)
-    private static final long MIN_TIME = 5000;  // minimum time threshold (in milliseconds)
+    private final LocationFilter locationFilter = new KalmanLocationFilter();  // smooths raw fixes before the upload decision
+    private final LocationUploadGate uploadGate = new LocationUploadGate();  // distance and time thresholds for uploads
+    private static final float STATIONARY_SPEED = 0.5f;  // below this speed the user is not moving (in m/s)
+    private static final float STATIONARY_RADIUS = 25;  // moving less than this from the anchor is not moving (in meters)
+    private static final long STATIONARY_DELAY = 120000;  // time without movement before the user is stationary (in milliseconds)
+    private final LocationSamplingPolicy samplingPolicy = new AdaptiveSamplingPolicy(); // picks the location request settings
+    private SamplingTier currentTier = SamplingTier.BACKGROUND;  // tier of the active location request
+    private float lastSpeed;  // speed of the last fix (in m/s)
+    private int lastBatteryLevel;  // battery level at the last fix (in percent)
+    private boolean lastCharging;  // charging state at the last fix
+    private boolean lastStationary;  // whether the user was stationary at the last fix
+    private boolean watched;  // whether a friend currently has the map open
+    private String watchedUserId;  // uid the watcher listener is attached to
+    private ValueEventListener watchersListener;  // listens for friends watching the user's location
+    private Location stationaryAnchor;  // last location where the user was seen moving
+    private long lastMovementTime;  // last time the user was seen moving (elapsed realtime in milliseconds)
     private static final FirebaseHelper db = FirebaseHelper.getInstance(); // get instance of FirebaseHelper singleton class
+    private LocationUploadQueue uploadQueue; // latest location data waiting to be uploaded, kept on disk
+    private LocationHistoryStore historyStore; // on-device history of the accepted location data
+    private static final int HISTORY_RETENTION_DAYS = 7; // days of location history kept on the device
+    private ValueEventListener connectionListener; // flushes the upload queue when the connection comes back
+    private final LocationMetrics metrics = LocationMetrics.getInstance(); // counters of the location pipeline
     private static final int NOTIFICATION_ID = 1; // notification id for foreground service
     private static final String CHANNEL_ID = "ForegroundServiceChannel"; // notification channel id for foreground service
 
@@ -53,6 +78,31 @@ public class LocationService extends Service {
             manager.createNotificationChannel(channel);
         }
 
+        // upload the location data left on disk by a previous run, and flush again whenever we reconnect
+        uploadQueue = new LocationUploadQueue(this);
+        connectionListener = db.listenForConnectionState(connected -> {
+            if (connected) {
+                uploadQueue.flush();
+            }
+        });
+
+        // keep a local history of accepted locations for trails and distance
+        historyStore = new LocationHistoryStore(new File(getFilesDir(), "location_history"), HISTORY_RETENTION_DAYS);
+
+        // switch between background and live mode depending on whether friends are watching
+        watchedUserId = db.getCurrentUserId();
+        watchersListener = db.listenForWatcherCount(watcherCount -> {
+            metrics.setGauge(LocationMetrics.Gauge.WATCHERS, watcherCount);
+            boolean isWatched = watcherCount > 0;
+            if (isWatched != watched) {
+                Log.d(TAG, "onWatcherCountChanged: " + watcherCount + " watchers");
+                watched = isWatched;
+                // upload every fix right away while someone is looking
+                uploadQueue.setLiveMode(watched);
+                applySamplingPolicy();
+            }
+        });
+
         // initialize location client
         myFusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
         // create location callback to get location updates
@@ -66,43 +116,51 @@ public class LocationService extends Service {
                 super.onLocationResult(locationResult);
                 // get new location
                 Location newLocation = locationResult.getLastLocation();
-                // get battery level
+                // get battery level and charging state
                 BatteryManager batteryManager = (BatteryManager) getSystemService(Context.BATTERY_SERVICE);
                 int batteryLevel = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+                boolean charging = batteryManager.isCharging();
 
                 // check if new location is available
                 if (newLocation != null) {
-                    if (lastLocation == null) {
-                        lastLocation = newLocation;
-                        lastUpdateTime = System.currentTimeMillis();
-                    } else {
-                        // calculate distance between two locations
-                        float distance = newLocation.distanceTo(lastLocation);
-                        long currentTime = System.currentTimeMillis();
-                        // calculate time difference between two locations
-                        long timeDifference = currentTime - lastUpdateTime;
-
-                        // satisfy both distance and time threshold to upload location data to firebase
-                        if (distance >= MIN_DISTANCE || timeDifference >= MIN_TIME) {
-                            LocationData locationData = new LocationData(
-                                    newLocation.getLatitude(),
-                                    newLocation.getLongitude(),
-                                    newLocation.getSpeed(),
-                                    currentTime,
-                                    batteryLevel
-                            );
-
-                            try {
-                                // upload location data to firebase
-                                db.uploadLocation(locationData);
-                            }catch (Exception e){
-                                Log.d(TAG, "Location updated Failed: " + e.getMessage());
-                            }
-
-                            // update last location and last update time
-                            lastLocation = newLocation;
-                            lastUpdateTime = currentTime;
+                    metrics.increment(LocationMetrics.Counter.FIXES_RECEIVED);
+                    // let the sampling policy adapt the location request to what the device is doing
+                    lastSpeed = newLocation.getSpeed();
+                    lastBatteryLevel = batteryLevel;
+                    lastCharging = charging;
+                    lastStationary = updateStationary(newLocation);
+                    applySamplingPolicy();
+
+                    // smooth the raw fix, outliers are dropped before the upload decision
+                    long currentTime = System.currentTimeMillis();
+                    if (!locationFilter.update(currentTime, newLocation.getLatitude(), newLocation.getLongitude(), newLocation.getAccuracy())) {
+                        Log.d(TAG, "onLocationResult: location rejected as an outlier");
+                        metrics.increment(LocationMetrics.Counter.FIXES_REJECTED);
+                        return;
+                    }
+                    double latitude = locationFilter.getLatitude();
+                    double longitude = locationFilter.getLongitude();
+
+                    // satisfy either the distance or the time threshold of the current tier to upload location data to firebase
+                    if (uploadGate.shouldUpload(currentTime, latitude, longitude, currentTier.getMinDistance(), currentTier.getMinTime())) {
+                        metrics.increment(LocationMetrics.Counter.FIXES_ACCEPTED);
+                        LocationData locationData = new LocationData(
+                                latitude,
+                                longitude,
+                                newLocation.getSpeed(),
+                                currentTime,
+                                batteryLevel
+                        );
+
+                        // queue location data, only the latest one is uploaded to firebase
+                        uploadQueue.enqueue(locationData);
+                        try {
+                            historyStore.append(currentTime, latitude, longitude, newLocation.getSpeed(), batteryLevel);
+                        } catch (IOException e) {
+                            Log.w(TAG, "onLocationResult: failed to store location history", e);
                         }
+                    } else {
+                        metrics.increment(LocationMetrics.Counter.FIXES_GATED);
                     }
                 }
 
@@ -127,19 +185,20 @@ public class LocationService extends Service {
     }
 
     /**
-     * Start location updates
+     * Start location updates with the settings of the current sampling tier,
+     * replaces the active request if there is one
      */
     private void startLocationUpdates() {
         LocationRequest mLocationRequest = new LocationRequest();
         // Set the interval for location updates (in milliseconds)
-        // This means the app will receive updates at most every 10 seconds
-        mLocationRequest.setInterval(10000);
+        mLocationRequest.setInterval(currentTier.getInterval());
         // Set the fastest interval for location updates (in milliseconds)
-        // If other apps request more frequent updates, your app will also receive them, but at most every 5 seconds
-        mLocationRequest.setFastestInterval(5000);
+        // If other apps request more frequent updates, your app will also receive them, but at most this often
+        mLocationRequest.setFastestInterval(currentTier.getFastestInterval());
         // Set the priority of the location request
-        // PRIORITY_HIGH_ACCURACY will try to use GPS for higher accuracy
-        mLocationRequest.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
+        // PRIORITY_HIGH_ACCURACY will try to use GPS for higher accuracy, PRIORITY_LOW_POWER relies on wifi and cell
+        mLocationRequest.setPriority(currentTier.getPriority());
+        metrics.setGauge(LocationMetrics.Gauge.SAMPLING_INTERVAL, currentTier.getInterval());
 
         if (ActivityCompat.checkSelfPermission(this, android.Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
             // location permission is denied, do not update user location
@@ -153,6 +212,35 @@ public class LocationService extends Service {
 
     }
 
+    /**
+     * Ask the sampling policy for a tier and restart location updates if it changed
+     */
+    private void applySamplingPolicy() {
+        SamplingTier tier = samplingPolicy.selectTier(lastSpeed, lastBatteryLevel, lastCharging, lastStationary, watched);
+        if (tier != currentTier) {
+            Log.d(TAG, "applySamplingPolicy: sampling tier changed from " + currentTier + " to " + tier);
+            currentTier = tier;
+            startLocationUpdates();
+        }
+    }
+
+    /**
+     * Track whether the user is stationary: no speed and no displacement from the anchor for a while
+     *
+     * @param location the new location
+     * @return true if the user has not moved for STATIONARY_DELAY
+     */
+    private boolean updateStationary(Location location) {
+        long now = SystemClock.elapsedRealtime();
+        if (stationaryAnchor == null
+                || location.getSpeed() >= STATIONARY_SPEED
+                || location.distanceTo(stationaryAnchor) >= STATIONARY_RADIUS) {
+            stationaryAnchor = location;
+            lastMovementTime = now;
+        }
+        return now - lastMovementTime >= STATIONARY_DELAY;
+    }
+
     /**
      * Called by the system every time a client explicitly starts the service by calling
      * @param intent The Intent that was used to bind to this service,
@@ -167,6 +255,16 @@ public class LocationService extends Service {
         return null;
     }
 
+    /**
+     * Print the location pipeline metrics,
+     * {@code adb shell dumpsys activity service com.example.zenly/com.example.services.LocationService [--json]}
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        boolean json = args != null && Arrays.asList(args).contains("--json");
+        writer.println(json ? metrics.toJson() : metrics.toText());
+    }
+
     /**
      * Called by the system to notify a Service that it is no longer used and is being removed.
      */
@@ -175,6 +273,19 @@ public class LocationService extends Service {
         super.onDestroy();
         // stop location updates
         myFusedLocationClient.removeLocationUpdates(myLocationCallback);
+        // upload what is still queued, a location not uploaded stays on disk for the next run
+        db.removeConnectionStateListener(connectionListener);
+        if (watchersListener != null) {
+            db.removeWatcherCountListener(watchedUserId, watchersListener);
+        }
+        uploadQueue.close();
+        // location sharing stops, friends no longer find this user nearby
+        db.removeFromGeoIndex();
+        try {
+            historyStore.close();
+        } catch (IOException e) {
+            Log.w(TAG, "onDestroy: failed to close location history", e);
+        }
         // stop foreground service
         stopForeground(true);
         Log.d(TAG, "onDestroy: location service destroyed");
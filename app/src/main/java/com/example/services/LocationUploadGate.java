@@ -0,0 +1,44 @@
+package com.example.services;
+
+import com.example.helpers.GeoHash;
+
+/**
+ * Decides which fixes LocationService uploads: a fix passes when it moved at least the
+ * minimum distance from the last uploaded position, or when the minimum time passed
+ * since the last upload. The first fix only sets the reference position.
+ */
+public class LocationUploadGate {
+    private boolean hasReference;
+    private double lastLatitude;
+    private double lastLongitude;
+    private long lastTime;
+
+    /**
+     * Check a fix against the thresholds, a passing fix becomes the new reference
+     *
+     * @param time        time of the fix (in milliseconds)
+     * @param latitude    latitude of the fix (in degrees)
+     * @param longitude   longitude of the fix (in degrees)
+     * @param minDistance minimum distance from the last upload (in meters)
+     * @param minTime     minimum time since the last upload (in milliseconds)
+     * @return true if the fix should be uploaded
+     */
+    public boolean shouldUpload(long time, double latitude, double longitude, float minDistance, long minTime) {
+        if (!hasReference) {
+            hasReference = true;
+            accept(time, latitude, longitude);
+            return false;
+        }
+        if (GeoHash.distance(lastLatitude, lastLongitude, latitude, longitude) >= minDistance || time - lastTime >= minTime) {
+            accept(time, latitude, longitude);
+            return true;
+        }
+        return false;
+    }
+
+    private void accept(long time, double latitude, double longitude) {
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastTime = time;
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.services;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.helpers.FirebaseHelper;
+import com.example.model.LocationData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * LocationUploadQueue holds the latest location fix waiting to be uploaded. The server only
+ * keeps the current position of a user, so a fix queued while another one is pending replaces
+ * it: however long the device stays offline, one write brings the position up to date. The
+ * trail of past fixes is kept on the device by {@link LocationHistoryStore}.
+ * <p>
+ * The pending fix is also written to a file of {@link #RECORD_SIZE} bytes, emptied once it is
+ * uploaded, so a fix taken offline is still uploaded after the process was killed.
+ */
+public class LocationUploadQueue {
+    private static final String TAG = "LocationUploadQueue";
+    private static final String FILE_NAME = "location_upload_queue.bin";
+    // latitude, longitude (double), speed (float), timestamp (long), battery level (int)
+    static final int RECORD_SIZE = 8 + 8 + 4 + 8 + 4;
+    // upload at least this often while a fix is pending (in milliseconds)
+    private static final long FLUSH_INTERVAL = 30000;
+
+    private final FirebaseHelper db = FirebaseHelper.getInstance();
+    private final LocationMetrics metrics = LocationMetrics.getInstance();
+    // all disk access happens on this thread
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final File file;
+    // reused buffer for the record, only touched on the executor thread
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+    private RandomAccessFile raf;
+    // fix waiting to be uploaded, null if the server is up to date, written on the executor thread
+    private volatile LocationData pending;
+    private boolean flushInFlight;
+    // while live, every fix is uploaded as soon as it is queued
+    private volatile boolean liveMode;
+    private long lastFlushTime;
+
+    // counters, written on the executor thread and read from any thread
+    private volatile long lastFlushLatency;
+    private volatile long totalFlushLatency;
+    private volatile int flushCount;
+    private volatile int failedFlushCount;
+    private volatile long uploadedCount;
+    private volatile long replacedCount;
+
+    public LocationUploadQueue(Context context) {
+        file = new File(context.getFilesDir(), FILE_NAME);
+        executor.execute(this::open);
+    }
+
+    /**
+     * Queue a location fix, it replaces the fix waiting to be uploaded if there is one
+     *
+     * @param locationData the accepted location fix
+     */
+    public void enqueue(@NonNull LocationData locationData) {
+        executor.execute(() -> {
+            if (raf == null) {
+                return;
+            }
+            if (pending != null) {
+                replacedCount++;
+                metrics.increment(LocationMetrics.Counter.FIXES_REPLACED);
+            }
+            pending = locationData;
+            metrics.setGauge(LocationMetrics.Gauge.PENDING_UPLOADS, 1);
+            try {
+                recordBuffer.clear();
+                recordBuffer.putDouble(locationData.getLatitude());
+                recordBuffer.putDouble(locationData.getLongitude());
+                recordBuffer.putFloat(locationData.getSpeed());
+                recordBuffer.putLong(locationData.getTimestamp());
+                recordBuffer.putInt(locationData.getBatteryLevel());
+                raf.seek(0);
+                raf.write(recordBuffer.array());
+            } catch (IOException e) {
+                // still uploaded by this process, only lost if it is killed first
+                Log.w(TAG, "enqueue: failed to store location", e);
+            }
+            if (liveMode || SystemClock.elapsedRealtime() - lastFlushTime >= FLUSH_INTERVAL) {
+                flushNow();
+            }
+        });
+    }
+
+    /**
+     * Set whether fixes are uploaded as soon as they are queued (someone is watching)
+     * or at most once per interval (nobody is watching), entering live mode uploads
+     * the pending fix
+     *
+     * @param liveMode true to upload every fix right away
+     */
+    public void setLiveMode(boolean liveMode) {
+        this.liveMode = liveMode;
+        if (liveMode) {
+            flush();
+        }
+    }
+
+    /**
+     * Upload the pending fix now, e.g. when the connection comes back
+     */
+    public void flush() {
+        executor.execute(this::flushNow);
+    }
+
+    /**
+     * Upload the pending fix and release the file, the queue can not be used afterwards
+     */
+    public void close() {
+        executor.execute(() -> {
+            flushNow();
+            try {
+                if (raf != null) {
+                    raf.close();
+                    raf = null;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "close: failed to close queue file", e);
+            }
+        });
+        executor.shutdown();
+    }
+
+    private void open() {
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            if (raf.length() >= RECORD_SIZE) {
+                raf.seek(0);
+                raf.readFully(recordBuffer.array());
+                recordBuffer.clear();
+                LocationData locationData = new LocationData(
+                        recordBuffer.getDouble(),
+                        recordBuffer.getDouble(),
+                        recordBuffer.getFloat(),
+                        recordBuffer.getLong(),
+                        recordBuffer.getInt());
+                if (Math.abs(locationData.getLatitude()) <= 90 && Math.abs(locationData.getLongitude()) <= 180) {
+                    pending = locationData;
+                } else {
+                    Log.w(TAG, "open: corrupted record, dropped");
+                    raf.setLength(0);
+                }
+            } else {
+                // empty, or a partially written record left by a crash
+                raf.setLength(0);
+            }
+            metrics.setGauge(LocationMetrics.Gauge.PENDING_UPLOADS, pending == null ? 0 : 1);
+            Log.d(TAG, "open: " + (pending == null ? "no" : "one") + " pending location");
+        } catch (IOException e) {
+            Log.e(TAG, "open: failed to open queue file", e);
+            raf = null;
+        }
+    }
+
+    private void flushNow() {
+        if (raf == null || flushInFlight || pending == null || db.getCurrentUserId() == null) {
+            return;
+        }
+        final LocationData locationData = pending;
+        flushInFlight = true;
+        lastFlushTime = SystemClock.elapsedRealtime();
+        final long start = lastFlushTime;
+        db.uploadLocation(locationData, new FirebaseHelper.LocationUploadCallback() {
+            @Override
+            public void onSuccess(long bytesSent) {
+                metrics.add(LocationMetrics.Counter.BYTES_SENT, bytesSent);
+                completeFlush(locationData, start, true);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.w(TAG, "flush: upload failed, location kept for the next flush", e);
+                completeFlush(locationData, start, false);
+            }
+        });
+    }
+
+    private void completeFlush(LocationData locationData, long start, boolean success) {
+        if (executor.isShutdown()) {
+            // the queue was closed, the fix is uploaded again on the next run (the write is idempotent)
+            return;
+        }
+        executor.execute(() -> onFlushCompleted(locationData, start, success));
+    }
+
+    private void onFlushCompleted(LocationData locationData, long start, boolean success) {
+        flushInFlight = false;
+        lastFlushLatency = SystemClock.elapsedRealtime() - start;
+        totalFlushLatency += lastFlushLatency;
+        flushCount++;
+        metrics.recordUploadLatency(lastFlushLatency);
+        if (!success) {
+            failedFlushCount++;
+            metrics.increment(LocationMetrics.Counter.UPLOADS_FAILED);
+            return;
+        }
+        metrics.increment(LocationMetrics.Counter.UPLOADS_SUCCEEDED);
+        metrics.increment(LocationMetrics.Counter.RECORDS_UPLOADED);
+        uploadedCount++;
+        if (pending != locationData) {
+            // a newer fix was queued while this one was in flight
+            if (liveMode) {
+                flushNow();
+            }
+            return;
+        }
+        pending = null;
+        metrics.setGauge(LocationMetrics.Gauge.PENDING_UPLOADS, 0);
+        if (raf == null) {
+            return;
+        }
+        try {
+            raf.setLength(0);
+        } catch (IOException e) {
+            Log.w(TAG, "flush: failed to clear the uploaded location", e);
+        }
+    }
+
+    /**
+     * @return true if a fix is waiting to be uploaded
+     */
+    public boolean hasPending() {
+        return pending != null;
+    }
+
+    /**
+     * @return the duration of the last flush, from the write to the server acknowledgement (in milliseconds)
+     */
+    public long getLastFlushLatency() {
+        return lastFlushLatency;
+    }
+
+    /**
+     * @return the average duration of a flush (in milliseconds)
+     */
+    public long getAverageFlushLatency() {
+        int count = flushCount;
+        return count == 0 ? 0 : totalFlushLatency / count;
+    }
+
+    public int getFlushCount() {
+        return flushCount;
+    }
+
+    public int getFailedFlushCount() {
+        return failedFlushCount;
+    }
+
+    public long getUploadedCount() {
+        return uploadedCount;
+    }
+
+    /**
+     * @return the number of fixes replaced by a newer one before they were uploaded
+     */
+    public long getReplacedCount() {
+        return replacedCount;
+    }
+}
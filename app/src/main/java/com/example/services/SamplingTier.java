@@ -0,0 +1,58 @@
+package com.example.services;
+
+import com.google.android.gms.location.LocationRequest;
+
+/**
+ * Location request settings picked by a {@link LocationSamplingPolicy}.
+ * minDistance and minTime gate the upload: a fix is uploaded when it moved at least
+ * minDistance or when minTime passed since the last upload.
+ * BACKGROUND is used while no friend is watching, the other tiers are the live mode.
+ */
+public enum SamplingTier {
+    // fast movement (driving), positions change quickly so sample often but upload on larger moves
+    MOVING_FAST(LocationRequest.PRIORITY_HIGH_ACCURACY, 5000, 2000, 50, 10000),
+    // running or cycling
+    MOVING(LocationRequest.PRIORITY_HIGH_ACCURACY, 10000, 5000, 20, 10000),
+    // walking, same settings the service always used before the policy engine
+    WALKING(LocationRequest.PRIORITY_HIGH_ACCURACY, 10000, 5000, 10, 5000),
+    // the user has not moved for a while, wifi/cell accuracy is enough
+    STATIONARY(LocationRequest.PRIORITY_LOW_POWER, 60000, 30000, 25, 300000),
+    // nobody is watching the user's location, upload rarely
+    BACKGROUND(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY, 120000, 60000, 100, 600000),
+    // battery is low and the device is not charging
+    LOW_BATTERY(LocationRequest.PRIORITY_LOW_POWER, 120000, 60000, 50, 600000);
+
+    private final int priority;
+    private final long interval;
+    private final long fastestInterval;
+    private final float minDistance;
+    private final long minTime;
+
+    SamplingTier(int priority, long interval, long fastestInterval, float minDistance, long minTime) {
+        this.priority = priority;
+        this.interval = interval;
+        this.fastestInterval = fastestInterval;
+        this.minDistance = minDistance;
+        this.minTime = minTime;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public long getFastestInterval() {
+        return fastestInterval;
+    }
+
+    public float getMinDistance() {
+        return minDistance;
+    }
+
+    public long getMinTime() {
+        return minTime;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.util;
+
+/**
+ * AccelerometerStepDetector counts steps from accelerometer samples, for devices without
+ * TYPE_STEP_COUNTER. It is a streaming peak detector: gravity is removed from the magnitude of
+ * the acceleration with a low-pass filter, the result is smoothed, and a local maximum above an
+ * adaptive threshold (mean + {@link #THRESHOLD_STD} standard deviations of the last
+ * {@link #WINDOW} samples) is a step candidate. Candidates count as steps once
+ * {@link #REQUIRED_RUN} of them follow each other at a walking rhythm, so shaking or tapping the
+ * phone is not counted.
+ * <p>
+ * All the state is in fixed-size primitive ring buffers: processing a sample does not allocate.
+ * The cumulative count behaves like TYPE_STEP_COUNTER, starting from 0 when the detector is created.
+ */
+public class AccelerometerStepDetector {
+    // sampling period requested from the accelerometer, 20 Hz is enough for walking and running
+    public static final int SAMPLING_PERIOD_US = 50 * 1000;
+    // number of smoothed samples of the adaptive threshold window
+    static final int WINDOW = 40;
+    // number of samples averaged to smooth the signal
+    static final int SMOOTHING = 3;
+    static final float THRESHOLD_STD = 0.6f;
+    // smallest peak counted (in m/s^2), below it the phone is considered still
+    static final float MIN_PEAK = 0.8f;
+    // smoothing factor of the gravity estimate
+    static final float GRAVITY_ALPHA = 0.05f;
+    // time between two steps: faster is a bounce of the same step, slower breaks the rhythm (in nanoseconds)
+    static final long MIN_STEP_INTERVAL = 250 * 1000 * 1000L;
+    static final long MAX_STEP_INTERVAL = 2000 * 1000 * 1000L;
+    // number of candidates in rhythm before they are counted
+    static final int REQUIRED_RUN = 4;
+
+    private final float[] raw = new float[SMOOTHING];
+    private int rawIndex;
+    private float rawSum;
+    private final float[] window = new float[WINDOW];
+    private int windowIndex;
+    private int windowCount;
+    private double windowSum;
+    private double windowSquareSum;
+
+    private float gravity = Float.NaN;
+    private float previous = Float.NaN;  // smoothed value of the previous sample
+    private float beforePrevious = Float.NaN;
+    private long previousTimestamp;
+
+    private long lastCandidateTimestamp = Long.MIN_VALUE;
+    private int run;  // candidates in rhythm, counted once the run reaches REQUIRED_RUN
+    private int stepCount;
+
+    /**
+     * Process an accelerometer sample
+     *
+     * @param timestamp time of the sample (in nanoseconds)
+     * @param x         acceleration on the x axis (in m/s^2)
+     * @param y         acceleration on the y axis (in m/s^2)
+     * @param z         acceleration on the z axis (in m/s^2)
+     * @return the number of steps counted with this sample
+     */
+    public int onSample(long timestamp, float x, float y, float z) {
+        float magnitude = (float) Math.sqrt(x * x + y * y + z * z);
+        if (Float.isNaN(gravity)) {
+            gravity = magnitude;
+        }
+        gravity += GRAVITY_ALPHA * (magnitude - gravity);
+        float linear = magnitude - gravity;
+
+        rawSum += linear - raw[rawIndex];
+        raw[rawIndex] = linear;
+        rawIndex = (rawIndex + 1) % SMOOTHING;
+        float smoothed = rawSum / SMOOTHING;
+
+        // threshold from the window before this sample
+        float threshold = threshold();
+        int counted = 0;
+        // the previous sample is a peak if it is above both neighbours
+        if (previous > beforePrevious && previous >= smoothed && previous > threshold) {
+            counted = onCandidate(previousTimestamp);
+        }
+
+        double evicted = windowCount == WINDOW ? window[windowIndex] : 0;
+        windowSum += smoothed - evicted;
+        windowSquareSum += (double) smoothed * smoothed - evicted * evicted;
+        window[windowIndex] = smoothed;
+        windowIndex = (windowIndex + 1) % WINDOW;
+        if (windowCount < WINDOW) {
+            windowCount++;
+        }
+        beforePrevious = previous;
+        previous = smoothed;
+        previousTimestamp = timestamp;
+        return counted;
+    }
+
+    private float threshold() {
+        if (windowCount < WINDOW) {
+            return Float.MAX_VALUE;  // not enough samples yet
+        }
+        double mean = windowSum / WINDOW;
+        double variance = Math.max(0, windowSquareSum / WINDOW - mean * mean);
+        return (float) Math.max(MIN_PEAK, mean + THRESHOLD_STD * Math.sqrt(variance));
+    }
+
+    private int onCandidate(long timestamp) {
+        long interval = timestamp - lastCandidateTimestamp;
+        if (lastCandidateTimestamp != Long.MIN_VALUE && interval < MIN_STEP_INTERVAL) {
+            return 0;
+        }
+        if (lastCandidateTimestamp == Long.MIN_VALUE || interval > MAX_STEP_INTERVAL) {
+            run = 0;
+        }
+        lastCandidateTimestamp = timestamp;
+        run++;
+        int counted;
+        if (run < REQUIRED_RUN) {
+            counted = 0;
+        } else if (run == REQUIRED_RUN) {
+            counted = REQUIRED_RUN;  // the rhythm is confirmed, count the whole run
+        } else {
+            counted = 1;
+        }
+        stepCount += counted;
+        return counted;
+    }
+
+    /**
+     * @return the steps counted since the detector was created
+     */
+    public int getStepCount() {
+        return stepCount;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.util;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * DayBoundary tracks the current local day as the wall clock interval [start, next midnight).
+ * The bounds are computed with a Calendar only when the day changes, so checking a sensor
+ * event against them is a comparison of two longs, without formatting a date.
+ * <p>
+ * The next midnight is an absolute time, so a DST transition during the day is already part
+ * of it. A time zone change or a manual clock change is not: call {@link #reset(TimeZone, long)}
+ * when the system broadcasts one.
+ */
+public class DayBoundary {
+    private TimeZone timeZone;
+    private long dayStart;  // local midnight starting the current day (epoch milliseconds)
+    private long nextMidnight;  // local midnight ending the current day (epoch milliseconds)
+    private String date;  // current day as yyyy-MM-dd
+
+    /**
+     * @param timeZone time zone defining the local days
+     * @param now      the current wall clock time (in milliseconds)
+     */
+    public DayBoundary(TimeZone timeZone, long now) {
+        reset(timeZone, now);
+    }
+
+    /**
+     * @param now the current wall clock time (in milliseconds)
+     * @return true if now is not in the current day, call {@link #advance(long)} to move to its day
+     */
+    public boolean isNewDay(long now) {
+        // before the start: the clock was set back
+        return now >= nextMidnight || now < dayStart;
+    }
+
+    /**
+     * Move to the day containing a time
+     *
+     * @param now the current wall clock time (in milliseconds)
+     */
+    public void advance(long now) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        // where midnight is skipped by DST the lenient calendar moves to the first valid time
+        dayStart = calendar.getTimeInMillis();
+        date = String.format(Locale.US, "%04d-%02d-%02d", calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        nextMidnight = calendar.getTimeInMillis();
+    }
+
+    /**
+     * Change the time zone, e.g. on {@code ACTION_TIMEZONE_CHANGED} or {@code ACTION_TIME_CHANGED}
+     *
+     * @param timeZone the new time zone
+     * @param now      the current wall clock time (in milliseconds)
+     */
+    public void reset(TimeZone timeZone, long now) {
+        this.timeZone = timeZone;
+        advance(now);
+    }
+
+    public long getDayStart() {
+        return dayStart;
+    }
+
+    public long getNextMidnight() {
+        return nextMidnight;
+    }
+
+    /**
+     * @return the current day as yyyy-MM-dd
+     */
+    public String getDate() {
+        return date;
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * PreferenceStore is a typed key-value store for the step counter settings. All values are
+ * read once into an in-memory cache, so reads neither touch the disk nor box primitives.
+ * Writes are grouped in a {@link Transaction}: a commit updates the cache right away and
+ * schedules one write of the whole file on the writer executor, coalesced with the commits
+ * that follow before it runs.
+ * <p>
+ * File layout: magic, entry count, then per entry the key (UTF), the type (byte) and the value.
+ * The file is written to a temporary file first and renamed, so a crash keeps the previous version.
+ * A file that cannot be read is deleted and the store starts empty.
+ */
+public class PreferenceStore {
+
+    /**
+     * Receives the errors the store recovers from, they are not thrown to the readers and writers
+     */
+    public interface ErrorListener {
+        void onError(String message, IOException e);
+    }
+
+    private static final int MAGIC = 0x53505246; // "SPRF"
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_BOOLEAN = 3;
+    private static final byte TYPE_STRING = 4;
+
+    private final File file;
+    private final Executor writer;
+    private final ErrorListener errorListener;
+    private final Map<String, Value> values = new HashMap<>();
+    private final Runnable writeTask = this::writeIfDirty;
+    // held while writing the file, the cache stays readable during the disk I/O
+    private final Object writeLock = new Object();
+    private boolean dirty;  // values changed since the last write
+    private boolean writeScheduled;
+    private int writeCount;  // number of times the file was written
+
+    /**
+     * @param file          the store file, created on the first commit
+     * @param writer        executor writing the file, off the main thread
+     * @param errorListener receives the unreadable file and the failed background writes
+     */
+    public PreferenceStore(File file, Executor writer, ErrorListener errorListener) {
+        this.file = file;
+        this.writer = writer;
+        this.errorListener = errorListener;
+        load();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            read();
+        } catch (IOException e) {
+            // wrong magic, unknown type or truncated: start empty, exists() is false until the next write
+            errorListener.onError("load: cannot read " + file + ", starting empty", e);
+            values.clear();
+            if (!file.delete()) {
+                errorListener.onError("load: cannot delete " + file, new IOException("Cannot delete " + file));
+            }
+        }
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a preference store: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                byte type = in.readByte();
+                switch (type) {
+                    case TYPE_INT:
+                        values.put(key, new Value(type, in.readInt(), null));
+                        break;
+                    case TYPE_LONG:
+                        values.put(key, new Value(type, in.readLong(), null));
+                        break;
+                    case TYPE_BOOLEAN:
+                        values.put(key, new Value(type, in.readBoolean() ? 1 : 0, null));
+                        break;
+                    case TYPE_STRING:
+                        values.put(key, new Value(type, 0, in.readUTF()));
+                        break;
+                    default:
+                        throw new IOException("Unknown type " + type + " of " + key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the store file exists, false before the first write
+     */
+    public boolean exists() {
+        return file.exists();
+    }
+
+    public synchronized int getInt(String key, int defaultValue) {
+        Value value = values.get(key);
+        return value != null && value.type == TYPE_INT ? (int) value.number : defaultValue;
+    }
+
+    public synchronized long getLong(String key, long defaultValue) {
+        Value value = values.get(key);
+        return value != null && value.type == TYPE_LONG ? value.number : defaultValue;
+    }
+
+    public synchronized boolean getBoolean(String key, boolean defaultValue) {
+        Value value = values.get(key);
+        return value != null && value.type == TYPE_BOOLEAN ? value.number != 0 : defaultValue;
+    }
+
+    public synchronized String getString(String key, String defaultValue) {
+        Value value = values.get(key);
+        return value != null && value.type == TYPE_STRING ? value.text : defaultValue;
+    }
+
+    public synchronized boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    /**
+     * Start a transaction, nothing is changed until {@link Transaction#commit()}
+     */
+    public Transaction edit() {
+        return new Transaction();
+    }
+
+    private synchronized void apply(Map<String, Value> changes) {
+        boolean changed = false;
+        for (Map.Entry<String, Value> change : changes.entrySet()) {
+            Value value = change.getValue();
+            Value previous = value == null ? values.remove(change.getKey()) : values.put(change.getKey(), value);
+            changed |= value == null ? previous != null : !value.equals(previous);
+        }
+        if (!changed) {
+            return;
+        }
+        dirty = true;
+        if (!writeScheduled) {
+            writeScheduled = true;
+            writer.execute(writeTask);
+        }
+    }
+
+    /**
+     * Write the pending changes now on the calling thread, e.g. after a migration
+     */
+    public void flush() throws IOException {
+        // snapshots are written in order, so an older one never replaces a newer one
+        synchronized (writeLock) {
+            byte[] data;
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                data = serialize();
+                dirty = false;
+            }
+            try {
+                write(data);
+            } catch (IOException e) {
+                synchronized (this) {
+                    dirty = true;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void writeIfDirty() {
+        synchronized (this) {
+            writeScheduled = false;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            // still dirty, written again with the next commit or flush
+            errorListener.onError("writeIfDirty: failed to write " + file, e);
+        }
+    }
+
+    private byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(values.size());
+        for (Map.Entry<String, Value> entry : values.entrySet()) {
+            Value value = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeByte(value.type);
+            switch (value.type) {
+                case TYPE_INT:
+                    out.writeInt((int) value.number);
+                    break;
+                case TYPE_LONG:
+                    out.writeLong(value.number);
+                    break;
+                case TYPE_BOOLEAN:
+                    out.writeBoolean(value.number != 0);
+                    break;
+                default:
+                    out.writeUTF(value.text);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private void write(byte[] data) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(data);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot rename " + temp + " to " + file);
+        }
+        writeCount++;
+    }
+
+    /**
+     * @return the number of times the file was written since the store was opened
+     */
+    public int getWriteCount() {
+        synchronized (writeLock) {
+            return writeCount;
+        }
+    }
+
+    private static final class Value {
+        final byte type;
+        final long number;  // int, long and boolean (0 or 1) values
+        final String text;
+
+        Value(byte type, long number, String text) {
+            this.type = type;
+            this.number = number;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Value)) {
+                return false;
+            }
+            Value other = (Value) o;
+            return type == other.type && number == other.number
+                    && (text == null ? other.text == null : text.equals(other.text));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * type + Long.hashCode(number)) + (text == null ? 0 : text.hashCode());
+        }
+    }
+
+    /**
+     * Changes committed together as one batch
+     */
+    public class Transaction {
+        private final Map<String, Value> changes = new HashMap<>();
+
+        public Transaction putInt(String key, int value) {
+            changes.put(key, new Value(TYPE_INT, value, null));
+            return this;
+        }
+
+        public Transaction putLong(String key, long value) {
+            changes.put(key, new Value(TYPE_LONG, value, null));
+            return this;
+        }
+
+        public Transaction putBoolean(String key, boolean value) {
+            changes.put(key, new Value(TYPE_BOOLEAN, value ? 1 : 0, null));
+            return this;
+        }
+
+        public Transaction putString(String key, String value) {
+            changes.put(key, value == null ? null : new Value(TYPE_STRING, 0, value));
+            return this;
+        }
+
+        public Transaction remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        /**
+         * Apply the changes to the cache and schedule the write, it is skipped if nothing changed
+         */
+        public void commit() {
+            apply(changes);
+        }
+    }
+}
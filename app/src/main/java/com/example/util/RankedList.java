@@ -0,0 +1,180 @@
+package com.example.util;
+
+import java.util.AbstractList;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * RankedList is a sorted list backed by an order-statistics tree: a treap whose nodes know the
+ * size of their subtree. Inserting, removing, finding the rank of an element and reading the
+ * element at a rank all cost O(log n), so moving one row of a long ranking does not shift the
+ * rows around it like an array list would.
+ * <p>
+ * The comparator must be a total order: two different elements never compare equal.
+ * The list is read-only through the {@link java.util.List} interface, it changes with
+ * {@link #insert(Object)} and {@link #delete(Object)} only.
+ */
+public class RankedList<T> extends AbstractList<T> {
+    private final Comparator<? super T> comparator;
+    private final Random random = new Random();
+    private Node<T> root;
+
+    public RankedList(Comparator<? super T> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Insert an element at its rank, an element comparing equal is replaced
+     *
+     * @return the rank of the element
+     */
+    public int insert(T element) {
+        int rank = delete(element);
+        Node<T> node = new Node<>(element, random.nextInt());
+        Node<T>[] parts = split(root, element);
+        root = merge(merge(parts[0], node), parts[1]);
+        modCount++;
+        return rank >= 0 ? rank : rankOf(element);
+    }
+
+    /**
+     * Remove the element comparing equal to the given one
+     *
+     * @return the rank the element had, or -1 if it was not in the list
+     */
+    public int delete(T element) {
+        int rank = rankOf(element);
+        if (rank >= 0) {
+            root = delete(root, element);
+            modCount++;
+        }
+        return rank;
+    }
+
+    private Node<T> delete(Node<T> node, T element) {
+        int compare = comparator.compare(element, node.value);
+        if (compare == 0) {
+            return merge(node.left, node.right);
+        }
+        if (compare < 0) {
+            node.left = delete(node.left, element);
+        } else {
+            node.right = delete(node.right, element);
+        }
+        node.update();
+        return node;
+    }
+
+    /**
+     * @return the rank of the element comparing equal to the given one, or -1 if there is none
+     */
+    public int rankOf(T element) {
+        int rank = 0;
+        Node<T> node = root;
+        while (node != null) {
+            int compare = comparator.compare(element, node.value);
+            if (compare == 0) {
+                return rank + size(node.left);
+            }
+            if (compare < 0) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public T get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node<T> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.value;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        modCount++;
+    }
+
+    // elements before the given one on the left, the others on the right
+    @SuppressWarnings("unchecked")
+    private Node<T>[] split(Node<T> node, T element) {
+        Node<T>[] parts = (Node<T>[]) new Node<?>[2];
+        if (node == null) {
+            return parts;
+        }
+        if (comparator.compare(node.value, element) < 0) {
+            Node<T>[] right = split(node.right, element);
+            node.right = right[0];
+            node.update();
+            parts[0] = node;
+            parts[1] = right[1];
+        } else {
+            Node<T>[] left = split(node.left, element);
+            node.left = left[1];
+            node.update();
+            parts[0] = left[0];
+            parts[1] = node;
+        }
+        return parts;
+    }
+
+    // every element of left comes before every element of right
+    private static <T> Node<T> merge(Node<T> left, Node<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node<T> {
+        final T value;
+        final int priority;  // heap order of the treap, random so the tree stays balanced
+        int size = 1;  // number of nodes in the subtree
+        Node<T> left;
+        Node<T> right;
+
+        Node(T value, int priority) {
+            this.value = value;
+            this.priority = priority;
+        }
+
+        void update() {
+            size = 1 + size(left) + size(right);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SearchPipeline runs the queries of a type-ahead search box:
+ * <ul>
+ *     <li>a query is only searched once the user stopped typing for the debounce delay</li>
+ *     <li>only the latest query is live: a newer query cancels the one waiting or running, and
+ *     the results of a cancelled query are dropped, so a slow answer never replaces newer results</li>
+ *     <li>a query extending the previous one (the previous query is a prefix of it) is answered
+ *     by filtering the previous results, without asking the source again</li>
+ * </ul>
+ * The searching and filtering run on the worker, the results are delivered on the delivery
+ * executor, usually the main thread.
+ */
+public class SearchPipeline<T> {
+
+    /**
+     * Searches a query, the callback can be called from any thread
+     */
+    public interface Source<T> {
+        void search(String query, Callback<T> callback);
+    }
+
+    public interface Callback<T> {
+        void onResults(List<T> results);
+
+        void onFailed(Exception e);
+    }
+
+    /**
+     * Tells if an item still matches a query extending the one that found it
+     */
+    public interface Matcher<T> {
+        boolean matches(T item, String query);
+    }
+
+    public interface Listener<T> {
+        void onResults(String query, List<T> results);
+
+        void onFailed(String query, Exception e);
+    }
+
+    private final Source<T> source;
+    private final Matcher<T> matcher;
+    private final long debounceMillis;
+    private final ScheduledExecutorService worker;
+    private final Executor delivery;
+    private final Listener<T> listener;
+    private int sequence;  // incremented by every query, only the latest one is delivered
+    private Future<?> pending;  // query waiting for the debounce delay
+    // last query answered by the source or by filtering, and its results
+    private String lastQuery;
+    private List<T> lastResults;
+    private int cacheVersion;  // incremented by invalidate, results searched before are not kept
+    private int searchCount;  // number of queries sent to the source
+
+    /**
+     * @param source         searches the queries that cannot be narrowed
+     * @param matcher        filters the previous results for a query extending the previous one
+     * @param debounceMillis time without a new query before a query is searched (in milliseconds)
+     * @param worker         runs the searches and the filtering
+     * @param delivery       runs the listener, usually on the main thread
+     * @param listener       receives the results of the latest query
+     */
+    public SearchPipeline(Source<T> source, Matcher<T> matcher, long debounceMillis,
+                          ScheduledExecutorService worker, Executor delivery, Listener<T> listener) {
+        this.source = source;
+        this.matcher = matcher;
+        this.debounceMillis = debounceMillis;
+        this.worker = worker;
+        this.delivery = delivery;
+        this.listener = listener;
+    }
+
+    /**
+     * Search a query once no other query follows within the debounce delay, e.g. on a keystroke
+     */
+    public void submit(String query) {
+        submit(query, debounceMillis);
+    }
+
+    /**
+     * Search a query right away, e.g. when the user presses the search button
+     */
+    public void submitNow(String query) {
+        submit(query, 0);
+    }
+
+    private synchronized void submit(final String query, long delay) {
+        final int querySequence = cancelPending();
+        final String trimmed = query == null ? "" : query.trim();
+        if (trimmed.isEmpty()) {
+            deliver(querySequence, trimmed, Collections.<T>emptyList());
+            return;
+        }
+        pending = worker.schedule(() -> run(querySequence, trimmed), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drop the query waiting or running, its results will not be delivered
+     */
+    public synchronized void cancel() {
+        cancelPending();
+    }
+
+    private int cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        return ++sequence;
+    }
+
+    /**
+     * Forget the previous results, e.g. when the searched data changed
+     */
+    public synchronized void invalidate() {
+        cacheVersion++;
+        lastQuery = null;
+        lastResults = null;
+    }
+
+    private void run(final int querySequence, final String query) {
+        List<T> previous;
+        final int version;
+        synchronized (this) {
+            if (querySequence != sequence) {
+                return;
+            }
+            pending = null;
+            version = cacheVersion;
+            previous = lastQuery != null && query.startsWith(lastQuery) ? lastResults : null;
+        }
+        if (previous != null) {
+            List<T> narrowed = new ArrayList<>();
+            for (T item : previous) {
+                if (matcher.matches(item, query)) {
+                    narrowed.add(item);
+                }
+            }
+            onResults(querySequence, version, query, narrowed);
+            return;
+        }
+        synchronized (this) {
+            searchCount++;
+        }
+        source.search(query, new Callback<T>() {
+            @Override
+            public void onResults(List<T> results) {
+                SearchPipeline.this.onResults(querySequence, version, query, new ArrayList<>(results));
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                synchronized (SearchPipeline.this) {
+                    if (querySequence != sequence) {
+                        return;
+                    }
+                }
+                delivery.execute(() -> {
+                    if (isLatest(querySequence)) {
+                        listener.onFailed(query, e);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onResults(int querySequence, int version, String query, List<T> results) {
+        List<T> delivered = Collections.unmodifiableList(results);
+        synchronized (this) {
+            if (querySequence != sequence) {
+                return;  // a newer query was submitted while this one was searched
+            }
+            if (version == cacheVersion) {
+                lastQuery = query;
+                lastResults = delivered;
+            }
+        }
+        deliver(querySequence, query, delivered);
+    }
+
+    private void deliver(final int querySequence, final String query, final List<T> results) {
+        delivery.execute(() -> {
+            // checked again, a newer query may have been submitted before the delivery ran
+            if (isLatest(querySequence)) {
+                listener.onResults(query, results);
+            }
+        });
+    }
+
+    private synchronized boolean isLatest(int querySequence) {
+        return querySequence == sequence;
+    }
+
+    /**
+     * @return the number of queries sent to the source, the others were narrowed or cancelled
+     */
+    public synchronized int getSearchCount() {
+        return searchCount;
+    }
+}
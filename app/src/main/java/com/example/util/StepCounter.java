@@ -7,87 +7,163 @@ import android.content.IntentFilter;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.util.Log;
 
-import androidx.annotation.NonNull;
+import com.example.helpers.FirebaseHelper;
 
-import com.example.model.User;
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
-
-import java.util.Objects;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
 
 
 public class StepCounter implements SensorEventListener {
-    private int sOffsetStep;
     private int sCurrStep;
     private String mTodayDate;
-    private boolean mIsCleanStep;
-    private boolean mIsShutdown;
-    private boolean mIsCounterStepReset = true;
+    // bounds of the current local day, checked on every batch instead of formatting the date
+    private final DayBoundary mDayBoundary;
+    // the day changed (time zone or clock change, or a new day while the service was stopped)
+    private boolean mIsDayChanged;
     private Context mContext;
     private boolean mIsSeparate;
     private boolean mIsBoot;
-    private final DatabaseReference usersRef;
-    private final DatabaseReference myDatabase;
-    private static final String URL = "https://mobile-computing-ef31f-default-rtdb.asia-southeast1.firebasedatabase.app/";
-    private final FirebaseAuth mAuth;
+    private final StepSync mStepSync = new StepSync();
+    // step state in memory, checkpointed to disk at intervals
+    private final StepJournal mJournal;
+    // hourly step buckets of every day, uploaded as daily totals
+    private final StepHistoryStore mHistory;
+    // today's steps from the counter values, across reboots and counter resets
+    private final StepReconciler mReconciler;
+    private final int mBootCount;
+    // counts the steps from the accelerometer when the device has no step counter, null otherwise
+    private AccelerometerStepDetector mSoftwareDetector;
+    private static final long HOUR = 60 * 60 * 1000;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mProcessBatch = this::processBatch;
+    // last counter value and number of events of the batch being delivered
+    private int mPendingCounterStep;
+    private int mPendingEvents;
+    // delivery times of the batches of the last hour (elapsed realtime in milliseconds)
+    private final ArrayDeque<Long> mBatchTimes = new ArrayDeque<>();
+    private long mBatchCount;
+    private long mEventCount;
 
     public StepCounter(Context context, boolean separate, boolean boot) {
         mContext = context;
         mIsSeparate = separate;
         mIsBoot = boot;
-        sCurrStep = (int) StepSPHelper.getCurrentStep(mContext);
-        mIsCleanStep = StepSPHelper.getCleanStep(mContext);
+        mJournal = StepUtil.getJournal(mContext);
+        mHistory = StepUtil.getHistory(mContext);
+        mBootCount = StepUtil.getBootCount(mContext);
+        mReconciler = new StepReconciler(mJournal.getCurrentStep(), mJournal.getLastSensorStep(),
+                mJournal.getBootCount(), mJournal.getElapsedRealtime());
+        sCurrStep = mReconciler.getCurrentStep();
         mTodayDate = StepSPHelper.getStepToday(mContext);
-        sOffsetStep = (int) StepSPHelper.getStepOffset(mContext);
-        myDatabase = FirebaseDatabase.getInstance(URL).getReference();
-        usersRef = myDatabase.child("users");
-        mAuth = FirebaseAuth.getInstance();
+        mDayBoundary = new DayBoundary(TimeZone.getDefault(), System.currentTimeMillis());
+        mIsDayChanged = !mDayBoundary.getDate().equals(mTodayDate);
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
         if (event.sensor.getType() == Sensor.TYPE_STEP_COUNTER) {
-            int counterStep = (int) event.values[0];
-            if (mIsCleanStep) {
-                cleanStep(counterStep);
-            }
-            sCurrStep = counterStep - sOffsetStep;
-            if (sCurrStep < 0) {
-                cleanStep(counterStep);
+            // events of a batch are delivered back to back, the counter is cumulative so only the last one matters
+            mPendingCounterStep = (int) event.values[0];
+            if (mPendingEvents++ == 0) {
+                mHandler.post(mProcessBatch);
             }
-            StepSPHelper.setCurrentStep(mContext, sCurrStep);
-            StepSPHelper.setElapsedRealTime(mContext, SystemClock.elapsedRealtime());
-            StepSPHelper.setLastSensorStep(mContext, counterStep);
-            Log.e("TAG", "onSensorChanged: " + sCurrStep);
-            DatabaseReference databaseReference = FirebaseDatabase.getInstance().getReference("users");
-            // get current user id
-            String userId = Objects.requireNonNull(mAuth.getCurrentUser()).getUid();
-
-            databaseReference.child(userId).addListenerForSingleValueEvent(new ValueEventListener() {
-                @Override
-                public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
-                    User user = dataSnapshot.getValue(User.class);
-                    if (user != null) {
-                        user.setStep((long) sCurrStep);
-                        String userId = Objects.requireNonNull(mAuth.getCurrentUser()).getUid();
-                        usersRef.child(userId).setValue(user);
-                    }
+        } else if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER && mSoftwareDetector != null) {
+            // the detector count is fed to the same pipeline as the step counter value
+            if (mSoftwareDetector.onSample(event.timestamp, event.values[0], event.values[1], event.values[2]) > 0) {
+                mPendingCounterStep = mSoftwareDetector.getStepCount();
+                if (mPendingEvents++ == 0) {
+                    mHandler.post(mProcessBatch);
                 }
+            }
+        }
+    }
 
-                @Override
-                public void onCancelled(@NonNull DatabaseError databaseError) {
-                    Log.d("TAG", "Get username failed: " + databaseError.getMessage());
-                }
-            });
-            dateChangeCleanStep();
+    /**
+     * Count the steps from the accelerometer, for devices without TYPE_STEP_COUNTER
+     */
+    public void useSoftwareDetector() {
+        if (mSoftwareDetector == null) {
+            mSoftwareDetector = new AccelerometerStepDetector();
+            // the detector counts from 0, unlike the step counter it does not keep its value across processes
+            mReconciler.restartCounter();
+        }
+    }
+
+    /**
+     * Process the events delivered together as one unit: one state update,
+     * one checkpoint and one sync decision
+     */
+    private void processBatch() {
+        if (mPendingEvents == 0) {
+            return;
         }
+        int counterStep = mPendingCounterStep;
+        recordBatch(mPendingEvents);
+        mPendingEvents = 0;
+        // a new day starts from the last counter value, the steps of this batch count for it
+        dateChangeCleanStep();
+        int previousStep = sCurrStep;
+        boolean restarted = mReconciler.onCounter(counterStep, SystemClock.elapsedRealtime(), mBootCount, mIsBoot);
+        mIsBoot = false;
+        sCurrStep = mReconciler.getCurrentStep();
+        mHistory.addSteps(System.currentTimeMillis(), sCurrStep - previousStep);
+        // a restart is checkpointed right away, the steps counted before it cannot be rebuilt from the counter
+        saveState(restarted);
+        Log.d("TAG", "processBatch: " + sCurrStep + (restarted ? " (counter restarted)" : ""));
+        // only the step field is uploaded, coalesced with the following events
+        mStepSync.onStepChanged(sCurrStep);
+    }
+
+    private void recordBatch(int events) {
+        long now = SystemClock.elapsedRealtime();
+        mBatchCount++;
+        mEventCount += events;
+        mBatchTimes.addLast(now);
+        while (now - mBatchTimes.getFirst() > HOUR) {
+            mBatchTimes.removeFirst();
+        }
+    }
+
+    /**
+     * Get the number of batches delivered during the last hour, each one is a wakeup of the application processor
+     *
+     * @return the wakeups during the last hour
+     */
+    public int getWakeupsLastHour() {
+        long now = SystemClock.elapsedRealtime();
+        while (!mBatchTimes.isEmpty() && now - mBatchTimes.getFirst() > HOUR) {
+            mBatchTimes.removeFirst();
+        }
+        return mBatchTimes.size();
+    }
+
+    /**
+     * @return the number of batches delivered since the counter was created
+     */
+    public long getBatchCount() {
+        return mBatchCount;
+    }
+
+    /**
+     * @return the number of reboots and counter resets detected since the counter was created
+     */
+    public int getRestartCount() {
+        return mReconciler.getRestartCount();
+    }
+
+    /**
+     * @return the number of sensor events delivered since the counter was created
+     */
+    public long getEventCount() {
+        return mEventCount;
     }
 
     @Override
@@ -95,35 +171,123 @@ public class StepCounter implements SensorEventListener {
 
     }
 
-    private void cleanStep(int counterStep) {
-        sCurrStep = 0;
-        sOffsetStep = counterStep;
-        StepSPHelper.setStepOffset(mContext, sOffsetStep);
-        mIsCleanStep = false;
-        StepSPHelper.setCleanStep(mContext, false);
+    /**
+     * Update the journal, the checkpoint is written when the interval is over or when forced
+     */
+    private void saveState(boolean force) {
+        long now = SystemClock.elapsedRealtime();
+        mJournal.update(sCurrStep, mReconciler.getStepOffset(), mReconciler.getLastCounter(), mReconciler.getBootCount(),
+                mReconciler.getLastElapsedRealtime(), System.currentTimeMillis());
+        try {
+            if (force) {
+                mJournal.checkpoint(now);
+                mHistory.flush();
+            } else if (mJournal.maybeCheckpoint(now)) {
+                mHistory.flush();
+            }
+        } catch (IOException e) {
+            Log.w("TAG", "saveState: failed to write the step journal", e);
+        }
+    }
+
+    /**
+     * Checkpoint the step state and upload the step count that is still pending, called when the service stops
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mProcessBatch);
+        processBatch();
+        try {
+            mJournal.flush(SystemClock.elapsedRealtime());
+            mHistory.flush();
+        } catch (IOException e) {
+            Log.w("TAG", "flush: failed to write the step journal", e);
+        }
+        mStepSync.flush();
+        uploadHistory();
+    }
+
+    /**
+     * Upload the daily totals that changed since the last upload
+     */
+    private void uploadHistory() {
+        Map<Integer, Integer> pending = mHistory.getPendingUploads();
+        if (pending.isEmpty() || FirebaseHelper.getInstance().getCurrentUserId() == null) {
+            return;
+        }
+        Map<String, Integer> dailyTotals = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : pending.entrySet()) {
+            dailyTotals.put(StepHistoryStore.dateKey(entry.getKey()), entry.getValue());
+        }
+        FirebaseHelper.getInstance().uploadDailySteps(dailyTotals, new FirebaseHelper.StepHistoryUploadCallback() {
+            @Override
+            public void onSuccess() {
+                mHistory.markUploaded(pending);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.d("TAG", "uploadHistory: kept for the next upload " + e.getMessage());
+            }
+        });
     }
 
     public void setZeroAndBoot(boolean separate, boolean boot) {
         mIsSeparate = separate;
         mIsBoot = boot;
+        if (separate) {
+            // midnight alarm: reset the day now instead of waiting for the next step
+            mHandler.post(() -> {
+                if (dateChangeCleanStep()) {
+                    mStepSync.onStepChanged(sCurrStep);
+                }
+            });
+        }
     }
 
-    private synchronized void dateChangeCleanStep() {
-        if (!getTodayDate().equals(mTodayDate) || mIsSeparate) {
-            mIsCleanStep = true;
-            StepSPHelper.setCleanStep(mContext, true);
-            mTodayDate = getTodayDate();
-            StepSPHelper.setStepToday(mContext, mTodayDate);
-            mIsBoot = false;
-            mIsSeparate = false;
-            sCurrStep = 0;
-            StepSPHelper.setCurrentStep(mContext, sCurrStep);
-        }
+    /**
+     * Recompute the day bounds after a time zone or clock change, the day is reset with the next batch if it changed
+     */
+    public synchronized void onTimeChanged() {
+        mDayBoundary.reset(TimeZone.getDefault(), System.currentTimeMillis());
+        mIsDayChanged = !mDayBoundary.getDate().equals(mTodayDate);
     }
 
-    private String getTodayDate() {
-        return StepDateUtils.getCurrentDate("yyyy-MM-dd");
+    /**
+     * @return the wall clock time of the next local midnight (in milliseconds)
+     */
+    public synchronized long getNextMidnight() {
+        checkDay(System.currentTimeMillis());
+        return mDayBoundary.getNextMidnight();
     }
 
+    // one comparison, the date is only computed when the day is over
+    private void checkDay(long now) {
+        if (mDayBoundary.isNewDay(now)) {
+            mDayBoundary.advance(now);
+            mIsDayChanged = !mDayBoundary.getDate().equals(mTodayDate);
+        }
+    }
+
+    /**
+     * Start a new day if the current one is over, the midnight alarm only triggers the check
+     *
+     * @return true if a new day started
+     */
+    private synchronized boolean dateChangeCleanStep() {
+        checkDay(System.currentTimeMillis());
+        mIsSeparate = false;
+        if (!mIsDayChanged) {
+            return false;
+        }
+        mIsDayChanged = false;
+        mTodayDate = mDayBoundary.getDate();
+        StepSPHelper.setStepToday(mContext, mTodayDate);
+        mReconciler.startNewDay();
+        sCurrStep = 0;
+        saveState(true);
+        // the previous day is complete, upload its total
+        uploadHistory();
+        return true;
+    }
 
 }
@@ -0,0 +1,323 @@
+package com.example.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * StepHistoryStore keeps the steps of every local day in 24 hourly buckets, held in primitive
+ * arrays and persisted to a binary file. It answers day, week and month totals without scanning
+ * raw events, and tracks which daily totals still have to be uploaded.
+ * <p>
+ * File layout: a header (magic, day count) followed by one record of {@link #RECORD_SIZE} bytes
+ * per day, sorted by day: local epoch day (int), 24 hourly step counts (int), last uploaded total (int).
+ */
+public class StepHistoryStore {
+    private static final int MAGIC = 0x53544850; // "STHP"
+    private static final int HEADER_SIZE = 8;
+    static final int HOURS = 24;
+    static final int RECORD_SIZE = 4 + HOURS * 4 + 4;
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    // number of days kept, a bit more than a year so that monthly totals can be compared
+    public static final int DEFAULT_RETENTION_DAYS = 400;
+
+    private final File file;
+    private final TimeZone timeZone;
+    private final int retentionDays;
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+    private RandomAccessFile raf;  // null for a history kept in memory only
+
+    // day i is days[i], its hourly buckets are buckets[i * HOURS .. i * HOURS + 23]
+    private int count;
+    private int[] days = new int[32];
+    private int[] buckets = new int[32 * HOURS];
+    private int[] uploadedTotals = new int[32];
+    // days changed since the last flush
+    private boolean[] dirty = new boolean[32];
+
+    /**
+     * @param file          the history file, created if needed
+     * @param timeZone      time zone defining the local days and hours
+     * @param retentionDays number of days kept
+     */
+    public StepHistoryStore(File file, TimeZone timeZone, int retentionDays) throws IOException {
+        this.file = file;
+        this.timeZone = timeZone;
+        this.retentionDays = retentionDays;
+        load();
+    }
+
+    private StepHistoryStore(TimeZone timeZone, int retentionDays) {
+        this.file = null;
+        this.timeZone = timeZone;
+        this.retentionDays = retentionDays;
+    }
+
+    /**
+     * Create a history kept in memory only, used when the file cannot be opened: the totals
+     * of this run are still available but not restored after a restart
+     *
+     * @param timeZone      time zone defining the local days and hours
+     * @param retentionDays number of days kept
+     */
+    public static StepHistoryStore inMemory(TimeZone timeZone, int retentionDays) {
+        return new StepHistoryStore(timeZone, retentionDays);
+    }
+
+    private void load() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        if (raf.length() < HEADER_SIZE || readHeaderMagic() != MAGIC) {
+            raf.setLength(0);
+            writeHeader();
+            return;
+        }
+        int stored = raf.readInt();
+        long available = (raf.length() - HEADER_SIZE) / RECORD_SIZE;
+        stored = (int) Math.max(0, Math.min(stored, available));
+        ensureCapacity(stored);
+        for (int i = 0; i < stored; i++) {
+            raf.readFully(recordBuffer.array());
+            recordBuffer.clear();
+            int day = recordBuffer.getInt();
+            if (count > 0 && day <= days[count - 1]) {
+                continue; // not sorted, drop the record
+            }
+            days[count] = day;
+            for (int hour = 0; hour < HOURS; hour++) {
+                buckets[count * HOURS + hour] = recordBuffer.getInt();
+            }
+            uploadedTotals[count] = recordBuffer.getInt();
+            count++;
+        }
+    }
+
+    private int readHeaderMagic() throws IOException {
+        raf.seek(0);
+        return raf.readInt();
+    }
+
+    private void writeHeader() throws IOException {
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeInt(count);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= days.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, days.length * 2);
+        days = Arrays.copyOf(days, newCapacity);
+        buckets = Arrays.copyOf(buckets, newCapacity * HOURS);
+        uploadedTotals = Arrays.copyOf(uploadedTotals, newCapacity);
+        dirty = Arrays.copyOf(dirty, newCapacity);
+    }
+
+    /**
+     * Get the local epoch day of a time
+     */
+    public int localDay(long time) {
+        return (int) Math.floorDiv(time + timeZone.getOffset(time), DAY);
+    }
+
+    private int localHour(long time) {
+        return (int) (Math.floorMod(time + timeZone.getOffset(time), DAY) / HOUR);
+    }
+
+    /**
+     * Add steps to the bucket of the local hour of a time, kept in memory until {@link #flush()}
+     *
+     * @param time  wall clock time of the steps (in milliseconds)
+     * @param steps number of new steps
+     */
+    public synchronized void addSteps(long time, int steps) {
+        if (steps <= 0) {
+            return;
+        }
+        int index = indexOrInsert(localDay(time));
+        buckets[index * HOURS + localHour(time)] += steps;
+        dirty[index] = true;
+    }
+
+    // index of a day, inserted with empty buckets if it is missing
+    private int indexOrInsert(int day) {
+        int index = Arrays.binarySearch(days, 0, count, day);
+        if (index >= 0) {
+            return index;
+        }
+        index = -index - 1;
+        ensureCapacity(count + 1);
+        int tail = count - index;
+        System.arraycopy(days, index, days, index + 1, tail);
+        System.arraycopy(buckets, index * HOURS, buckets, (index + 1) * HOURS, tail * HOURS);
+        System.arraycopy(uploadedTotals, index, uploadedTotals, index + 1, tail);
+        System.arraycopy(dirty, index, dirty, index + 1, tail);
+        days[index] = day;
+        Arrays.fill(buckets, index * HOURS, (index + 1) * HOURS, 0);
+        uploadedTotals[index] = 0;
+        // every record after the insertion point moves in the file
+        for (int i = index; i <= count; i++) {
+            dirty[i] = true;
+        }
+        count++;
+        return index;
+    }
+
+    /**
+     * Write the changed days and drop the days older than the retention period
+     */
+    public synchronized void flush() throws IOException {
+        int expired = 0;
+        if (count > 0) {
+            int oldestDay = days[count - 1] - retentionDays + 1;
+            while (expired < count && days[expired] < oldestDay) {
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            // rare (once a day at most): shift the arrays and rewrite the whole file
+            int remaining = count - expired;
+            System.arraycopy(days, expired, days, 0, remaining);
+            System.arraycopy(buckets, expired * HOURS, buckets, 0, remaining * HOURS);
+            System.arraycopy(uploadedTotals, expired, uploadedTotals, 0, remaining);
+            count = remaining;
+            Arrays.fill(dirty, 0, count, true);
+            if (raf != null) {
+                raf.setLength(HEADER_SIZE + (long) count * RECORD_SIZE);
+            }
+        }
+        if (raf == null) {
+            Arrays.fill(dirty, 0, count, false);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            if (dirty[i]) {
+                writeRecord(i);
+                dirty[i] = false;
+            }
+        }
+        writeHeader();
+    }
+
+    private void writeRecord(int index) throws IOException {
+        recordBuffer.clear();
+        recordBuffer.putInt(days[index]);
+        for (int hour = 0; hour < HOURS; hour++) {
+            recordBuffer.putInt(buckets[index * HOURS + hour]);
+        }
+        recordBuffer.putInt(uploadedTotals[index]);
+        raf.seek(HEADER_SIZE + (long) index * RECORD_SIZE);
+        raf.write(recordBuffer.array());
+    }
+
+    /**
+     * Get the hourly steps of a local day
+     *
+     * @param day local epoch day
+     * @return a copy of the 24 hourly buckets, all zero if the day is unknown
+     */
+    public synchronized int[] getHourlySteps(int day) {
+        int index = Arrays.binarySearch(days, 0, count, day);
+        if (index < 0) {
+            return new int[HOURS];
+        }
+        return Arrays.copyOfRange(buckets, index * HOURS, (index + 1) * HOURS);
+    }
+
+    public synchronized int getDayTotal(int day) {
+        int index = Arrays.binarySearch(days, 0, count, day);
+        return index < 0 ? 0 : total(index);
+    }
+
+    private int total(int index) {
+        int sum = 0;
+        for (int i = index * HOURS; i < (index + 1) * HOURS; i++) {
+            sum += buckets[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Get the steps of the local days from fromDay to toDay, both included
+     */
+    public synchronized long getRangeTotal(int fromDay, int toDay) {
+        int index = Arrays.binarySearch(days, 0, count, fromDay);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        long sum = 0;
+        for (; index < count && days[index] <= toDay; index++) {
+            sum += total(index);
+        }
+        return sum;
+    }
+
+    /**
+     * Get the steps of the week (Monday to Sunday) containing a local day
+     */
+    public long getWeekTotal(int day) {
+        // epoch day 0 (1970-01-01) was a Thursday
+        int monday = day - Math.floorMod(day + 3, 7);
+        return getRangeTotal(monday, monday + 6);
+    }
+
+    /**
+     * Get the steps of the calendar month containing a local day
+     */
+    public long getMonthTotal(int day) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(day * DAY);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        int firstDay = (int) Math.floorDiv(calendar.getTimeInMillis(), DAY);
+        return getRangeTotal(firstDay, firstDay + calendar.getActualMaximum(Calendar.DAY_OF_MONTH) - 1);
+    }
+
+    /**
+     * Get the ISO date (yyyy-MM-dd) of a local epoch day, used as the key of uploaded totals
+     */
+    public static String dateKey(int day) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(day * DAY);
+        return String.format(Locale.US, "%04d-%02d-%02d", calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * Get the daily totals that changed since they were last uploaded
+     *
+     * @return map of local epoch day to total, in day order
+     */
+    public synchronized Map<Integer, Integer> getPendingUploads() {
+        Map<Integer, Integer> pending = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int total = total(i);
+            if (total != uploadedTotals[i]) {
+                pending.put(days[i], total);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Record that daily totals were uploaded, they are persisted with the next flush
+     *
+     * @param uploaded map of local epoch day to the total that was uploaded
+     */
+    public synchronized void markUploaded(Map<Integer, Integer> uploaded) {
+        for (Map.Entry<Integer, Integer> entry : uploaded.entrySet()) {
+            int index = Arrays.binarySearch(days, 0, count, entry.getKey());
+            if (index >= 0) {
+                uploadedTotals[index] = entry.getValue();
+                dirty[index] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * StepJournal keeps the step counter state in memory and checkpoints it to a small
+ * fixed-size binary file, instead of rewriting the SharedPreferences XML on every event.
+ * <p>
+ * The file is a ring of {@link #SLOTS} records of {@link #RECORD_SIZE} bytes. Every checkpoint
+ * overwrites the oldest slot with an increasing sequence number and a CRC32, so a torn write
+ * only loses that checkpoint: recovery picks the valid record with the highest sequence.
+ * <p>
+ * Record layout: sequence (long), current step (int), step offset (int), last sensor step (int),
+ * boot count (int), elapsed realtime (long), wall clock time (long), CRC32 of the previous fields (int).
+ * Files written before the boot count was added ({@link #LEGACY_RECORD_SIZE}) are read once and rewritten.
+ */
+public class StepJournal {
+    static final int SLOTS = 8;
+    static final int RECORD_SIZE = 8 + 4 + 4 + 4 + 4 + 8 + 8 + 4;
+    static final int LEGACY_RECORD_SIZE = RECORD_SIZE - 4;
+    // default minimum time between two checkpoints (in milliseconds)
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 30 * 1000;
+
+    private final File file;
+    private final long checkpointInterval;
+    private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private RandomAccessFile raf;  // null for a journal kept in memory only
+
+    // in-memory state, always up to date
+    private int currentStep;
+    private int stepOffset;
+    private int lastSensorStep;
+    private int bootCount = StepReconciler.UNKNOWN;
+    private long elapsedRealtime;
+    private long wallTime;
+
+    private long sequence;  // sequence of the last checkpoint, 0 if there is none
+    private boolean dirty;  // the state changed since the last checkpoint
+    private long lastCheckpointTime = Long.MIN_VALUE;  // elapsed realtime of the last checkpoint
+    private int writeCount;  // number of checkpoints written
+
+    /**
+     * Open the journal and recover the latest checkpoint
+     *
+     * @param file               the journal file, created if needed
+     * @param checkpointInterval minimum time between two checkpoints (in milliseconds)
+     */
+    public StepJournal(File file, long checkpointInterval) throws IOException {
+        this.file = file;
+        this.checkpointInterval = checkpointInterval;
+        recover();
+    }
+
+    private StepJournal(long checkpointInterval) {
+        this.file = null;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Create a journal kept in memory only, used when the file cannot be opened: the steps
+     * are still counted but not restored after a restart
+     *
+     * @param checkpointInterval minimum time between two checkpoints (in milliseconds)
+     */
+    public static StepJournal inMemory(long checkpointInterval) {
+        return new StepJournal(checkpointInterval);
+    }
+
+    private void recover() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        boolean legacy = raf.length() == (long) SLOTS * LEGACY_RECORD_SIZE;
+        if (!legacy && raf.length() != (long) SLOTS * RECORD_SIZE) {
+            raf.setLength((long) SLOTS * RECORD_SIZE);
+        }
+        int recordSize = legacy ? LEGACY_RECORD_SIZE : RECORD_SIZE;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            raf.seek((long) slot * recordSize);
+            raf.readFully(buffer.array(), 0, recordSize);
+            buffer.clear();
+            long recordSequence = buffer.getLong();
+            int recordStep = buffer.getInt();
+            int recordOffset = buffer.getInt();
+            int recordSensorStep = buffer.getInt();
+            int recordBootCount = legacy ? StepReconciler.UNKNOWN : buffer.getInt();
+            long recordElapsed = buffer.getLong();
+            long recordWallTime = buffer.getLong();
+            int recordCrc = buffer.getInt();
+            if (recordSequence <= sequence || recordCrc != checksum(recordSize)) {
+                continue;
+            }
+            sequence = recordSequence;
+            currentStep = recordStep;
+            stepOffset = recordOffset;
+            lastSensorStep = recordSensorStep;
+            bootCount = recordBootCount;
+            elapsedRealtime = recordElapsed;
+            wallTime = recordWallTime;
+        }
+        if (legacy) {
+            // rewrite the recovered state in the current layout
+            raf.setLength(0);
+            raf.setLength((long) SLOTS * RECORD_SIZE);
+            if (sequence > 0) {
+                dirty = true;
+                checkpoint(Long.MIN_VALUE);
+            }
+        }
+    }
+
+    // checksum of the fields in the buffer before the CRC
+    private int checksum(int recordSize) {
+        crc.reset();
+        crc.update(buffer.array(), 0, recordSize - 4);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return true if no checkpoint was ever written
+     */
+    public synchronized boolean isEmpty() {
+        return sequence == 0;
+    }
+
+    /**
+     * Update the in-memory state, nothing is written until the next checkpoint
+     */
+    public synchronized void update(int currentStep, int stepOffset, int lastSensorStep, long elapsedRealtime, long wallTime) {
+        update(currentStep, stepOffset, lastSensorStep, bootCount, elapsedRealtime, wallTime);
+    }
+
+    /**
+     * Update the in-memory state including the boot count of the last sensor step
+     */
+    public synchronized void update(int currentStep, int stepOffset, int lastSensorStep, int bootCount,
+                                    long elapsedRealtime, long wallTime) {
+        if (currentStep == this.currentStep && stepOffset == this.stepOffset && lastSensorStep == this.lastSensorStep
+                && bootCount == this.bootCount) {
+            return;
+        }
+        this.currentStep = currentStep;
+        this.stepOffset = stepOffset;
+        this.lastSensorStep = lastSensorStep;
+        this.bootCount = bootCount;
+        this.elapsedRealtime = elapsedRealtime;
+        this.wallTime = wallTime;
+        dirty = true;
+    }
+
+    /**
+     * Write a checkpoint if the state changed and the checkpoint interval is over
+     *
+     * @param now the current elapsed realtime (in milliseconds)
+     * @return true if a checkpoint was written
+     */
+    public synchronized boolean maybeCheckpoint(long now) throws IOException {
+        if (!dirty || (lastCheckpointTime != Long.MIN_VALUE && now - lastCheckpointTime < checkpointInterval)) {
+            return false;
+        }
+        checkpoint(now);
+        return true;
+    }
+
+    /**
+     * Write a checkpoint now if the state changed, e.g. on shutdown or when the offset changes
+     *
+     * @param now the current elapsed realtime (in milliseconds)
+     */
+    public synchronized void checkpoint(long now) throws IOException {
+        if (!dirty) {
+            return;
+        }
+        long nextSequence = sequence + 1;
+        buffer.clear();
+        buffer.putLong(nextSequence);
+        buffer.putInt(currentStep);
+        buffer.putInt(stepOffset);
+        buffer.putInt(lastSensorStep);
+        buffer.putInt(bootCount);
+        buffer.putLong(elapsedRealtime);
+        buffer.putLong(wallTime);
+        buffer.putInt(checksum(RECORD_SIZE));
+        if (raf != null) {
+            raf.seek(nextSequence % SLOTS * RECORD_SIZE);
+            raf.write(buffer.array());
+        }
+        sequence = nextSequence;
+        dirty = false;
+        lastCheckpointTime = now;
+        writeCount++;
+    }
+
+    /**
+     * Write the pending state and make sure it reached the disk, e.g. on shutdown
+     *
+     * @param now the current elapsed realtime (in milliseconds)
+     */
+    public synchronized void flush(long now) throws IOException {
+        checkpoint(now);
+        if (raf != null) {
+            raf.getFD().sync();
+        }
+    }
+
+    public synchronized int getCurrentStep() {
+        return currentStep;
+    }
+
+    public synchronized int getStepOffset() {
+        return stepOffset;
+    }
+
+    public synchronized int getLastSensorStep() {
+        return lastSensorStep;
+    }
+
+    /**
+     * @return the boot count of the last sensor step, {@link StepReconciler#UNKNOWN} if it is not known
+     */
+    public synchronized int getBootCount() {
+        return bootCount;
+    }
+
+    /**
+     * @return the elapsed realtime of the last update (in milliseconds)
+     */
+    public synchronized long getElapsedRealtime() {
+        return elapsedRealtime;
+    }
+
+    /**
+     * @return the wall clock time of the last update (in milliseconds)
+     */
+    public synchronized long getWallTime() {
+        return wallTime;
+    }
+
+    /**
+     * @return the number of checkpoints written since the journal was opened
+     */
+    public synchronized int getWriteCount() {
+        return writeCount;
+    }
+}
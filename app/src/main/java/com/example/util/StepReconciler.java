@@ -0,0 +1,117 @@
+package com.example.util;
+
+/**
+ * StepReconciler turns the values of TYPE_STEP_COUNTER, which counts the steps since the
+ * device booted, into today's step count.
+ * <p>
+ * Today's count only grows by the difference between two counter values of the same boot.
+ * When the counter restarted (a reboot, or a sensor reset without one) the new value is the
+ * number of steps since the restart and is added on top of the steps already counted, so the
+ * steps taken before the reboot are carried forward instead of being dropped with a new offset.
+ * <p>
+ * A restart is detected from the boot count when it is known, otherwise from the counter or the
+ * elapsed realtime going backwards, or from the boot completed broadcast.
+ */
+public class StepReconciler {
+    public static final int UNKNOWN = -1;
+
+    private int currentStep;  // steps counted today
+    private int lastCounter;  // last counter value, UNKNOWN before the first one
+    private int bootCount;  // boot count of lastCounter, UNKNOWN if the system does not report it
+    private long lastElapsedRealtime;  // elapsed realtime of lastCounter (in milliseconds)
+    private int restartCount;  // number of counter restarts detected
+
+    /**
+     * Restore the state saved after the last counter value
+     *
+     * @param currentStep         steps counted today
+     * @param lastCounter         last counter value, UNKNOWN if there is none
+     * @param bootCount           boot count of the last counter value, or UNKNOWN
+     * @param lastElapsedRealtime elapsed realtime of the last counter value (in milliseconds)
+     */
+    public StepReconciler(int currentStep, int lastCounter, int bootCount, long lastElapsedRealtime) {
+        this.currentStep = currentStep;
+        this.lastCounter = lastCounter;
+        this.bootCount = bootCount;
+        this.lastElapsedRealtime = lastElapsedRealtime;
+    }
+
+    /**
+     * Add the steps of a new counter value
+     *
+     * @param counter         value of the step counter
+     * @param elapsedRealtime elapsed realtime of the value (in milliseconds)
+     * @param bootCount       current boot count, or UNKNOWN
+     * @param bootHint        true if the service was started by the boot completed broadcast
+     * @return true if the counter restarted since the previous value
+     */
+    public boolean onCounter(int counter, long elapsedRealtime, int bootCount, boolean bootHint) {
+        boolean restarted = false;
+        if (lastCounter == UNKNOWN) {
+            // no reference yet, the steps before the first value cannot be attributed to today
+        } else if (counter < lastCounter || isNewBoot(elapsedRealtime, bootCount, bootHint)) {
+            // the counter started again from 0
+            currentStep += counter;
+            restarted = true;
+            restartCount++;
+        } else {
+            currentStep += counter - lastCounter;
+        }
+        lastCounter = counter;
+        this.bootCount = bootCount;
+        lastElapsedRealtime = elapsedRealtime;
+        return restarted;
+    }
+
+    private boolean isNewBoot(long elapsedRealtime, int bootCount, boolean bootHint) {
+        if (bootCount != UNKNOWN && this.bootCount != UNKNOWN) {
+            return bootCount != this.bootCount;
+        }
+        return elapsedRealtime < lastElapsedRealtime || bootHint;
+    }
+
+    /**
+     * Count the next value in full, for a counter that is known to start again from 0
+     * (the software step detector starts from 0 with every process)
+     */
+    public void restartCounter() {
+        lastCounter = 0;
+    }
+
+    /**
+     * Start a new day, the steps after the last counter value count for it
+     */
+    public void startNewDay() {
+        currentStep = 0;
+    }
+
+    public int getCurrentStep() {
+        return currentStep;
+    }
+
+    public int getLastCounter() {
+        return lastCounter;
+    }
+
+    public int getBootCount() {
+        return bootCount;
+    }
+
+    public long getLastElapsedRealtime() {
+        return lastElapsedRealtime;
+    }
+
+    /**
+     * @return the counter value matching 0 steps today, negative after a restart carried steps forward
+     */
+    public int getStepOffset() {
+        return lastCounter == UNKNOWN ? 0 : lastCounter - currentStep;
+    }
+
+    /**
+     * @return the number of counter restarts detected since the reconciler was created
+     */
+    public int getRestartCount() {
+        return restartCount;
+    }
+}
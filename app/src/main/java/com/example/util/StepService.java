@@ -4,32 +4,57 @@ import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.IBinder;
 import android.os.SystemClock;
+import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.Calendar;
 import java.util.TimeZone;
 
 public class StepService extends Service {
 
     private static final int SAMPLING_PERIOD_US = SensorManager.SENSOR_DELAY_FASTEST;
+    // how long the sensor hub may hold step events before waking the application processor
+    public static final int DEFAULT_MAX_REPORT_LATENCY_US = 60 * 1000 * 1000;
     public static final String INTENT_ALARM_0_SEPARATE = "intent_alarm_0_separate";
     public static final String INTENT_BOOT_COMPLETED = "intent_boot_completed";
+    public static final String INTENT_MAX_REPORT_LATENCY_US = "intent_max_report_latency_us";
+    private static final String TAG = "StepService";
     private SensorManager mSensorManager;
     private StepCounter mStepCounter;
     private boolean mIsSeparate = false;
     private boolean mIsBoot = false;
-    private int alarmCount;
+    private int mMaxReportLatencyUs = DEFAULT_MAX_REPORT_LATENCY_US;
+    private int mRegisteredLatencyUs = -1;
+    // time zone and clock changes move the local midnight
+    private final BroadcastReceiver mTimeChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mStepCounter != null) {
+                mStepCounter.onTimeChanged();
+                scheduleMidnightAlarm();
+            }
+        }
+    };
 
     @Override
     public void onCreate() {
         super.onCreate();
         mSensorManager = (SensorManager) this.getSystemService(SENSOR_SERVICE);
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        registerReceiver(mTimeChangedReceiver, filter);
     }
 
     @Override
@@ -46,14 +71,34 @@ public class StepService extends Service {
         if (null != intent) {
             mIsSeparate = intent.getBooleanExtra(INTENT_ALARM_0_SEPARATE, false);
             mIsBoot = intent.getBooleanExtra(INTENT_BOOT_COMPLETED, false);
+            mMaxReportLatencyUs = intent.getIntExtra(INTENT_MAX_REPORT_LATENCY_US, mMaxReportLatencyUs);
         }
         startStepDetector();
+        scheduleMidnightAlarm();
         return START_STICKY;
     }
 
+    /**
+     * Wake StepZeroAlarmReceiver at the next local midnight, so that the day is reset even without steps
+     */
+    private void scheduleMidnightAlarm() {
+        if (mStepCounter == null) {
+            return;
+        }
+        AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
+        Intent intent = new Intent(this, StepZeroAlarmReceiver.class);
+        intent.setAction(StepZeroAlarmReceiver.ACTION_ALARM_0_SEPARATE);
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(this, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        // inexact is enough, the step counter also detects the new day on its next batch
+        alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, mStepCounter.getNextMidnight(), pendingIntent);
+    }
+
     private void startStepDetector() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && getStepCounter()) {
             addStepCounterListener();
+        } else if (mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) != null) {
+            addAccelerometerListener();
         } else {
             StepSPHelper.setSupportStep(this, false);
         }
@@ -68,13 +113,45 @@ public class StepService extends Service {
 
     private void addStepCounterListener() {
         StepSPHelper.setSupportStep(this, true);
+        Sensor countSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER);
         if (null != mStepCounter) {
             mStepCounter.setZeroAndBoot(mIsSeparate, mIsBoot);
-            return;
+            if (mRegisteredLatencyUs == mMaxReportLatencyUs) {
+                return;
+            }
+            // the report latency changed, register again with the new value
+            mSensorManager.unregisterListener(mStepCounter);
+        } else {
+            mStepCounter = new StepCounter(getApplicationContext(), mIsSeparate, mIsBoot);
         }
-        Sensor countSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER);
-        mStepCounter = new StepCounter(getApplicationContext(), mIsSeparate, mIsBoot);
-        mSensorManager.registerListener(mStepCounter, countSensor, SAMPLING_PERIOD_US);
+        // let the sensor hub batch the events, they are delivered together at most every mMaxReportLatencyUs
+        if (countSensor.getFifoMaxEventCount() == 0) {
+            Log.d(TAG, "addStepCounterListener: step counter has no FIFO, events are not batched");
+        }
+        mSensorManager.registerListener(mStepCounter, countSensor, SAMPLING_PERIOD_US, mMaxReportLatencyUs);
+        mRegisteredLatencyUs = mMaxReportLatencyUs;
+    }
+
+    /**
+     * Count the steps in software from the accelerometer, sampled at a low rate and batched like the step counter
+     */
+    private void addAccelerometerListener() {
+        StepSPHelper.setSupportStep(this, true);
+        Sensor accelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (null != mStepCounter) {
+            mStepCounter.setZeroAndBoot(mIsSeparate, mIsBoot);
+            if (mRegisteredLatencyUs == mMaxReportLatencyUs) {
+                return;
+            }
+            mSensorManager.unregisterListener(mStepCounter);
+        } else {
+            mStepCounter = new StepCounter(getApplicationContext(), mIsSeparate, mIsBoot);
+            mStepCounter.useSoftwareDetector();
+        }
+        Log.d(TAG, "addAccelerometerListener: no step counter, counting steps from the accelerometer");
+        mSensorManager.registerListener(mStepCounter, accelerometer, AccelerometerStepDetector.SAMPLING_PERIOD_US,
+                mMaxReportLatencyUs);
+        mRegisteredLatencyUs = mMaxReportLatencyUs;
     }
 
     @Override
@@ -87,9 +164,33 @@ public class StepService extends Service {
         return super.onUnbind(intent);
     }
 
+    /**
+     * Print the batching statistics,
+     * {@code adb shell dumpsys activity service com.example.zenly/com.example.util.StepService}
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("max report latency: " + mRegisteredLatencyUs + " us");
+        if (mStepCounter == null) {
+            writer.println("step counter not registered");
+            return;
+        }
+        long batches = mStepCounter.getBatchCount();
+        writer.println("wakeups (batches) during the last hour: " + mStepCounter.getWakeupsLastHour());
+        writer.println("counter restarts (reboots, resets): " + mStepCounter.getRestartCount());
+        writer.println("batches: " + batches + ", events: " + mStepCounter.getEventCount()
+                + ", events per batch: " + (batches == 0 ? 0 : mStepCounter.getEventCount() / (double) batches));
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
+        unregisterReceiver(mTimeChangedReceiver);
+        if (mStepCounter != null) {
+            mSensorManager.unregisterListener(mStepCounter);
+            // upload the last coalesced step count
+            mStepCounter.flush();
+        }
     }
 
 }
@@ -0,0 +1,85 @@
+package com.example.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.helpers.FirebaseHelper;
+
+/**
+ * StepSync uploads today's step count. Sensor updates are coalesced: only the latest
+ * count is kept, and it is written when the step delta or the interval since the last
+ * write is reached, or when the service stops. Only users/{uid}/step is written, so
+ * the rest of the user record (e.g. the friends map) is never downloaded or overwritten.
+ */
+public class StepSync {
+    private static final String TAG = "StepSync";
+    // default minimum time between two writes (in milliseconds)
+    public static final long DEFAULT_INTERVAL = 60 * 1000;
+    // default number of new steps that triggers a write before the interval is over
+    public static final int DEFAULT_STEP_DELTA = 100;
+
+    private final FirebaseHelper db = FirebaseHelper.getInstance();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final long interval;
+    private final int stepDelta;
+    private final Runnable flushTask = this::flush;
+    private long pendingStep = -1;  // latest step count not uploaded yet, -1 if none
+    private long syncedStep = -1;  // last step count written, -1 before the first write
+    private long lastSyncTime;  // elapsed realtime of the last write (in milliseconds)
+    private boolean flushScheduled;
+
+    public StepSync() {
+        this(DEFAULT_INTERVAL, DEFAULT_STEP_DELTA);
+    }
+
+    /**
+     * @param interval  minimum time between two writes (in milliseconds)
+     * @param stepDelta number of new steps that triggers a write before the interval is over
+     */
+    public StepSync(long interval, int stepDelta) {
+        this.interval = interval;
+        this.stepDelta = stepDelta;
+    }
+
+    /**
+     * Report the current step count, the write is delayed and coalesced with the following ones
+     *
+     * @param step today's step count
+     */
+    public synchronized void onStepChanged(long step) {
+        if (step == syncedStep) {
+            pendingStep = -1;
+            return;
+        }
+        pendingStep = step;
+        long elapsed = SystemClock.elapsedRealtime() - lastSyncTime;
+        // a reset (new day) is written right away, otherwise wait for the delta or the interval
+        if (syncedStep < 0 || step < syncedStep || step - syncedStep >= stepDelta || elapsed >= interval) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushTask, interval - elapsed);
+        }
+    }
+
+    /**
+     * Write the pending step count now, e.g. when the service stops
+     */
+    public synchronized void flush() {
+        handler.removeCallbacks(flushTask);
+        flushScheduled = false;
+        if (pendingStep < 0) {
+            return;
+        }
+        if (db.getCurrentUserId() == null) {
+            Log.d(TAG, "flush: no user logged in, step count kept for later");
+            return;
+        }
+        db.updateStep(pendingStep);
+        syncedStep = pendingStep;
+        pendingStep = -1;
+        lastSyncTime = SystemClock.elapsedRealtime();
+    }
+}
@@ -1,7 +1,137 @@
 package com.example.util;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
 
 public class StepUtil {
+    private static final String TAG = "StepUtil";
+    private static final String JOURNAL_FILE = "step_journal.bin";
+    private static final String HISTORY_FILE = "step_history.bin";
+    private static final String PREFERENCES_FILE = "step_preferences.bin";
+    // SharedPreferences file used before PreferenceStore, migrated once and deleted
+    private static final String LEGACY_PREFERENCES = "step_shared_data";
+    private static final String MIGRATED = "migrated";
+    private static PreferenceStore sPreferences;
+    private static StepJournal sJournal;
+    private static StepHistoryStore sHistory;
+
+    // Returns the journal holding the step counter state, shared by the service and the UI
+    static synchronized StepJournal getJournal(Context context) {
+        if (sJournal == null) {
+            sJournal = openJournal(new File(context.getApplicationContext().getFilesDir(), JOURNAL_FILE));
+            if (sJournal.isEmpty()) {
+                // first run with the journal, take over the state kept in the shared preferences
+                int lastSensorStep = StepSPHelper.getLastSensorStep(context);
+                sJournal.update(StepSPHelper.getCurrentStep(context), StepSPHelper.getStepOffset(context),
+                        lastSensorStep > 0 ? lastSensorStep : StepReconciler.UNKNOWN, StepReconciler.UNKNOWN,
+                        StepSPHelper.getElapsedRealTime(context), System.currentTimeMillis());
+                try {
+                    sJournal.checkpoint(SystemClock.elapsedRealtime());
+                } catch (IOException e) {
+                    Log.w(TAG, "getJournal: failed to write the first checkpoint", e);
+                }
+            }
+        }
+        return sJournal;
+    }
+
+    // Opens the journal file, starts a new file if it cannot be read and keeps the state in memory as a last resort
+    private static StepJournal openJournal(File file) {
+        try {
+            return new StepJournal(file, StepJournal.DEFAULT_CHECKPOINT_INTERVAL);
+        } catch (IOException e) {
+            Log.e(TAG, "openJournal: cannot open " + file + ", starting a new journal", e);
+        }
+        if (file.delete()) {
+            try {
+                return new StepJournal(file, StepJournal.DEFAULT_CHECKPOINT_INTERVAL);
+            } catch (IOException e) {
+                Log.e(TAG, "openJournal: cannot create " + file, e);
+            }
+        }
+        return StepJournal.inMemory(StepJournal.DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    // Returns the typed settings of the step counter, read once and written off the main thread
+    static synchronized PreferenceStore getPreferences(Context context) {
+        if (sPreferences == null) {
+            Context appContext = context.getApplicationContext();
+            // an unreadable file is deleted by the store, the migration then runs again
+            sPreferences = new PreferenceStore(new File(appContext.getFilesDir(), PREFERENCES_FILE),
+                    Executors.newSingleThreadExecutor(), (message, e) -> Log.w(TAG, message, e));
+            if (!sPreferences.exists()) {
+                try {
+                    migratePreferences(appContext, sPreferences);
+                } catch (IOException e) {
+                    // the values are in the cache and written again later, the old file is kept until then
+                    Log.w(TAG, "getPreferences: failed to write the migrated preferences", e);
+                }
+            }
+        }
+        return sPreferences;
+    }
+
+    // Copies the old SharedPreferences into the store once, step counts stored as floats become ints
+    private static void migratePreferences(Context context, PreferenceStore preferences) throws IOException {
+        SharedPreferences legacy = context.getSharedPreferences(LEGACY_PREFERENCES, Context.MODE_PRIVATE);
+        PreferenceStore.Transaction transaction = preferences.edit();
+        for (Map.Entry<String, ?> entry : legacy.getAll().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Float) {
+                transaction.putInt(entry.getKey(), Math.round((Float) value));
+            } else if (value instanceof Integer) {
+                transaction.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                transaction.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Boolean) {
+                transaction.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof String) {
+                transaction.putString(entry.getKey(), (String) value);
+            }
+        }
+        // written even when empty, so that the migration runs only once
+        transaction.putBoolean(MIGRATED, true).commit();
+        preferences.flush();
+        context.deleteSharedPreferences(LEGACY_PREFERENCES);
+    }
+
+    // Returns the hourly step history, shared by the service and the UI
+    public static synchronized StepHistoryStore getHistory(Context context) {
+        if (sHistory == null) {
+            sHistory = openHistory(new File(context.getApplicationContext().getFilesDir(), HISTORY_FILE));
+        }
+        return sHistory;
+    }
+
+    // Opens the history file, starts a new file if it cannot be read and keeps the history in memory as a last resort
+    private static StepHistoryStore openHistory(File file) {
+        try {
+            return new StepHistoryStore(file, TimeZone.getDefault(), StepHistoryStore.DEFAULT_RETENTION_DAYS);
+        } catch (IOException e) {
+            Log.e(TAG, "openHistory: cannot open " + file + ", starting a new history", e);
+        }
+        if (file.delete()) {
+            try {
+                return new StepHistoryStore(file, TimeZone.getDefault(), StepHistoryStore.DEFAULT_RETENTION_DAYS);
+            } catch (IOException e) {
+                Log.e(TAG, "openHistory: cannot create " + file, e);
+            }
+        }
+        return StepHistoryStore.inMemory(TimeZone.getDefault(), StepHistoryStore.DEFAULT_RETENTION_DAYS);
+    }
+
+    // Returns the number of boots of the device, StepReconciler.UNKNOWN if the system does not report it
+    static int getBootCount(Context context) {
+        return Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT, StepReconciler.UNKNOWN);
+    }
 
     // Checks if the step sensor is available on the device
     public static boolean isSupportStep(Context context) {
@@ -10,7 +140,7 @@ public class StepUtil {
 
     // Checks if the step sensor is available on the device
     public static int getTodayStep(Context context) {
-        return (int) StepSPHelper.getCurrentStep(context);
+        return getJournal(context).getCurrentStep();
     }
 
 }
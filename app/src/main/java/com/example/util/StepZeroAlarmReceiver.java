@@ -6,10 +6,12 @@ import android.content.Intent;
 import android.os.Build;
 
 public class StepZeroAlarmReceiver extends BroadcastReceiver {
+    // sent by StepService at the next local midnight
+    public static final String ACTION_ALARM_0_SEPARATE = "alarm_0_separate";
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (intent.getAction() != null && intent.getAction().equals("alarm_0_separate")) {
+        if (intent.getAction() != null && intent.getAction().equals(ACTION_ALARM_0_SEPARATE)) {
             Intent todayStepIntent = new Intent(context, StepService.class);
             todayStepIntent.putExtra(StepService.INTENT_ALARM_0_SEPARATE, true);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -0,0 +1,96 @@
+package com.example.helpers;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link GeoHash}. The covering cells are checked against random points
+ * of the circle, including circles crossing the antimeridian and close to a pole.
+ */
+public class GeoHashTest {
+    private static final int PRECISION = 6;
+    private static final int MAX_CELLS = 64;
+
+    @Test
+    public void encode_knownValues() {
+        assertEquals("ezs42", GeoHash.encode(42.6, -5.6, 5));
+        assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+        assertEquals("r1r0fs", GeoHash.encode(-37.8136, 144.9631, 6));
+        // a longer geohash extends the shorter one
+        assertTrue(GeoHash.encode(57.64911, 10.40744, 11).startsWith(GeoHash.encode(57.64911, 10.40744, 4)));
+    }
+
+    @Test
+    public void encode_edgesOfTheWorld() {
+        assertEquals("000000", GeoHash.encode(-90, -180, PRECISION));
+        assertEquals("zzzzzz", GeoHash.encode(90, 180, PRECISION));
+        assertEquals(GeoHash.encode(0, 0, PRECISION).length(), PRECISION);
+    }
+
+    @Test
+    public void coveringCells_containEveryPointOfTheCircle() {
+        Random random = new Random(42);
+        double[][] centers = {
+                {-37.8136, 144.9631},  // Melbourne
+                {0, 0},
+                {51.4779, -0.0015},  // Greenwich
+                {-16.5, 179.99},  // antimeridian, Fiji
+                {-16.5, -179.99},
+                {78.22, 15.65},  // Svalbard
+        };
+        for (double[] center : centers) {
+            for (double radius : new double[]{100, 1000, 2500}) {
+                List<String> cells = GeoHash.coveringCells(center[0], center[1], radius, PRECISION, 256);
+                assertNotNull(cells);
+                Set<String> cover = new HashSet<>(cells);
+                for (int i = 0; i < 2000; i++) {
+                    double[] point = randomPoint(random, center[0], center[1], radius);
+                    String cell = GeoHash.encode(point[0], point[1], PRECISION);
+                    assertTrue("missing " + cell + " for " + point[0] + "," + point[1] + " within " + radius
+                            + " m of " + center[0] + "," + center[1], cover.contains(cell));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void coveringCells_ofSmallCircle_isSmall() {
+        List<String> cells = GeoHash.coveringCells(-37.8136, 144.9631, 100, PRECISION, MAX_CELLS);
+        assertNotNull(cells);
+        assertTrue(cells.size() <= 4);
+        assertEquals(cells.size(), new HashSet<>(cells).size());
+    }
+
+    @Test
+    public void coveringCells_tooLarge_returnsNull() {
+        assertNull(GeoHash.coveringCells(-37.8136, 144.9631, 50000, PRECISION, MAX_CELLS));
+    }
+
+    @Test
+    public void distance_greatCircle() {
+        assertEquals(0, GeoHash.distance(10, 20, 10, 20), 1e-6);
+        // one degree of latitude
+        assertEquals(111195, GeoHash.distance(0, 0, 1, 0), 1);
+        // across the antimeridian
+        assertEquals(GeoHash.distance(0, 179.5, 0, -179.5), GeoHash.distance(0, -0.5, 0, 0.5), 1e-6);
+    }
+
+    // random point at most radius meters from the center, moved along a random bearing
+    private static double[] randomPoint(Random random, double latitude, double longitude, double radius) {
+        double distance = radius * random.nextDouble() / GeoHash.EARTH_RADIUS;
+        double bearing = 2 * Math.PI * random.nextDouble();
+        double lat1 = Math.toRadians(latitude);
+        double lat2 = Math.asin(Math.sin(lat1) * Math.cos(distance)
+                + Math.cos(lat1) * Math.sin(distance) * Math.cos(bearing));
+        double lon2 = Math.toRadians(longitude) + Math.atan2(Math.sin(bearing) * Math.sin(distance) * Math.cos(lat1),
+                Math.cos(distance) - Math.sin(lat1) * Math.sin(lat2));
+        double normalized = (Math.toDegrees(lon2) + 540) % 360 - 180;
+        return new double[]{Math.toDegrees(lat2), normalized};
+    }
+}
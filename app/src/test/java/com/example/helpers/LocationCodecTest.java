@@ -0,0 +1,117 @@
+package com.example.helpers;
+
+import com.example.model.LocationData;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocationCodec}, the compact format is compared with the size of
+ * the legacy JSON object.
+ */
+public class LocationCodecTest {
+
+    private static LocationData sample() {
+        return new LocationData(-37.796318, 144.961406, 1.37f, 1697500000123L, 87);
+    }
+
+    @Test
+    public void encode_roundTripsWithinQuantization() {
+        LocationData decoded = LocationCodec.decode(LocationCodec.encode(sample()));
+        assertEquals(-37.796318, decoded.getLatitude(), 1e-6);
+        assertEquals(144.961406, decoded.getLongitude(), 1e-6);
+        assertEquals(1.37f, decoded.getSpeed(), 0.005f);
+        assertEquals(1697500000000L, decoded.getTimestamp());
+        assertEquals(87, decoded.getBatteryLevel());
+    }
+
+    @Test
+    public void encode_is22Characters() {
+        assertEquals(22, LocationCodec.encode(sample()).length());
+    }
+
+    @Test
+    public void encode_handlesCoordinateAndValueLimits() {
+        LocationData decoded = LocationCodec.decode(LocationCodec.encode(
+                new LocationData(90.0, -180.0, 1000f, 4102444800000L, 150)));
+        assertEquals(90.0, decoded.getLatitude(), 1e-6);
+        assertEquals(-180.0, decoded.getLongitude(), 1e-6);
+        assertEquals(655.35f, decoded.getSpeed(), 0.001f);
+        assertEquals(4102444800000L, decoded.getTimestamp());
+        assertEquals(100, decoded.getBatteryLevel());
+
+        decoded = LocationCodec.decode(LocationCodec.encode(new LocationData(-90.0, 180.0, -1f, 0L, -5)));
+        assertEquals(-90.0, decoded.getLatitude(), 1e-6);
+        assertEquals(180.0, decoded.getLongitude(), 1e-6);
+        assertEquals(0f, decoded.getSpeed(), 0f);
+        assertEquals(0, decoded.getBatteryLevel());
+    }
+
+    @Test
+    public void encode_roundTripsRandomFixes() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            LocationData data = new LocationData(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180,
+                    random.nextFloat() * 60, 1600000000000L + random.nextInt(Integer.MAX_VALUE) * 1000L, random.nextInt(101));
+            LocationData decoded = LocationCodec.decode(LocationCodec.encode(data));
+            assertEquals(data.getLatitude(), decoded.getLatitude(), 5e-7);
+            assertEquals(data.getLongitude(), decoded.getLongitude(), 5e-7);
+            assertEquals(data.getSpeed(), decoded.getSpeed(), 0.0051f);
+            assertEquals(data.getTimestamp(), decoded.getTimestamp());
+            assertEquals(data.getBatteryLevel(), decoded.getBatteryLevel());
+        }
+    }
+
+    @Test
+    public void decodeValue_readsLegacyMap() {
+        Map<String, Object> legacy = new HashMap<>();
+        legacy.put("latitude", -37.796318);
+        legacy.put("longitude", 144.961406);
+        legacy.put("speed", 1.5);
+        legacy.put("timestamp", 1697500000123L);
+        legacy.put("batteryLevel", 87L);
+        LocationData decoded = LocationCodec.decodeValue(legacy);
+        assertNotNull(decoded);
+        assertEquals(-37.796318, decoded.getLatitude(), 0);
+        assertEquals(144.961406, decoded.getLongitude(), 0);
+        assertEquals(1.5f, decoded.getSpeed(), 0);
+        assertEquals(1697500000123L, decoded.getTimestamp());
+        assertEquals(87, decoded.getBatteryLevel());
+    }
+
+    @Test
+    public void decodeValue_readsCompactString() {
+        LocationData decoded = LocationCodec.decodeValue(LocationCodec.encode(sample()));
+        assertNotNull(decoded);
+        assertEquals(-37.796318, decoded.getLatitude(), 1e-6);
+    }
+
+    @Test
+    public void decodeValue_rejectsGarbage() {
+        assertNull(LocationCodec.decodeValue("not a location"));
+        assertNull(LocationCodec.decodeValue(42L));
+        assertNull(LocationCodec.decodeValue(null));
+    }
+
+    @Test
+    public void compactFormat_isAThirdOfLegacySize() {
+        LocationData data = sample();
+        String legacy = legacyJson(data);
+        String compact = "\"" + LocationCodec.encode(data) + "\"";
+        assertTrue(compact.length() * 3 < legacy.length());
+    }
+
+    // same keys and number formatting the database client uses for the LocationData POJO
+    private static String legacyJson(LocationData data) {
+        return "{\"batteryLevel\":" + data.getBatteryLevel()
+                + ",\"latitude\":" + data.getLatitude()
+                + ",\"longitude\":" + data.getLongitude()
+                + ",\"speed\":" + (double) data.getSpeed()
+                + ",\"timestamp\":" + data.getTimestamp() + "}";
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.helpers;
+
+import com.example.model.Friend;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProfileLoader}, with a fake backend answered by the test and a
+ * fake scheduler whose timeouts are run by hand.
+ */
+public class ProfileLoaderTest {
+    private final FakeSource source = new FakeSource();
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private final ProfileLoader loader = new ProfileLoader(source, scheduler, 2, 1000);
+
+    @Test
+    public void concurrentRequests_shareOneRead() {
+        List<String> loaded = new ArrayList<>();
+        loader.load("a", profileCallback(loaded));
+        loader.load("a", profileCallback(loaded));
+        loader.loadAll(Arrays.asList("a", "a"), (profiles, errors) -> loaded.add("batch"));
+        assertEquals(1, loader.getReadCount());
+
+        source.answer("a");
+        assertEquals(Arrays.asList("a", "a", "batch"), loaded);
+
+        // a request after the read completed reads again
+        loader.load("a", profileCallback(loaded));
+        assertEquals(2, loader.getReadCount());
+    }
+
+    @Test
+    public void reads_areCappedInFlight() {
+        List<Friend> result = new ArrayList<>();
+        loader.loadAll(Arrays.asList("a", "b", "c", "d", "e"), (profiles, errors) -> result.addAll(profiles));
+        assertEquals(2, loader.getInFlight());
+        assertEquals(Arrays.asList("a", "b"), source.requested());
+
+        source.answer("b");
+        assertEquals(2, loader.getInFlight());
+        assertEquals(Arrays.asList("a", "c"), source.requested());
+
+        source.answer("a");
+        source.answer("c");
+        source.answer("d");
+        assertTrue(result.isEmpty());
+        source.answer("e");
+        assertEquals(0, loader.getInFlight());
+        assertEquals(5, loader.getReadCount());
+        // in the order of the request, not of the answers
+        assertEquals("a", result.get(0).getUserId());
+        assertEquals("e", result.get(4).getUserId());
+    }
+
+    @Test
+    public void timeoutAndFailure_completeWithPartialResults() {
+        List<Friend> result = new ArrayList<>();
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        loader.loadAll(Arrays.asList("a", "b", "c"), (profiles, errors) -> {
+            result.addAll(profiles);
+            failures.putAll(errors);
+        });
+        source.fail("b");
+        scheduler.runOldest();  // "a" never answers
+        assertTrue(result.isEmpty());
+
+        source.answer("c");
+        assertEquals(1, result.size());
+        assertEquals("c", result.get(0).getUserId());
+        assertEquals(Arrays.asList("b", "a"), new ArrayList<>(failures.keySet()));
+
+        // the late answer is ignored and did not take a second slot
+        source.answer("a");
+        assertEquals(1, result.size());
+        assertEquals(0, loader.getInFlight());
+    }
+
+    @Test
+    public void emptyBatch_completesAtOnce() {
+        List<String> loaded = new ArrayList<>();
+        loader.loadAll(Collections.<String>emptyList(), (profiles, errors) -> loaded.add("batch"));
+        assertEquals(Collections.singletonList("batch"), loaded);
+        assertEquals(0, loader.getReadCount());
+    }
+
+    private static ProfileLoader.ProfileCallback profileCallback(final List<String> loaded) {
+        return new ProfileLoader.ProfileCallback() {
+            @Override
+            public void onProfileLoaded(Friend profile) {
+                loaded.add(profile.getUserId());
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                loaded.add("failed");
+            }
+        };
+    }
+
+    private static class FakeSource implements ProfileLoader.Source {
+        private final Map<String, ProfileLoader.ProfileCallback> pending = new LinkedHashMap<>();
+
+        @Override
+        public void read(String userId, ProfileLoader.ProfileCallback callback) {
+            pending.put(userId, callback);
+        }
+
+        List<String> requested() {
+            return new ArrayList<>(pending.keySet());
+        }
+
+        void answer(String userId) {
+            pending.remove(userId).onProfileLoaded(new Friend(userId, "user " + userId, userId + "@example.com", null));
+        }
+
+        void fail(String userId) {
+            pending.remove(userId).onFailed(new Exception("Permission denied"));
+        }
+    }
+
+    private static class FakeScheduler implements ProfileLoader.Scheduler {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            tasks.add(task);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            tasks.remove(task);
+        }
+
+        void runOldest() {
+            tasks.remove(0).run();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.managers;
+
+import com.example.model.Friend;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FriendIndex}, the search is checked against a scan of the friends
+ * with {@link FriendIndex#matches(Friend, String)}.
+ */
+public class FriendIndexTest {
+
+    @Test
+    public void search_matchesPrefixOfNameOrWord() {
+        FriendIndex index = FriendIndex.build(Arrays.asList(
+                friend("1", "Anna"), friend("2", "Marie Annick"), friend("3", "Bob"), friend("4", "joANNe")));
+        assertEquals(Arrays.asList("1", "2"), ids(index.search("ann")));
+        assertEquals(Arrays.asList("2"), ids(index.search("marie a")));
+        assertEquals(Arrays.asList("4"), ids(index.search("JO")));
+        assertTrue(index.search("nne").isEmpty());
+        assertTrue(index.search("").isEmpty());
+        assertTrue(index.search("  ").isEmpty());
+    }
+
+    @Test
+    public void search_ignoresAccents() {
+        FriendIndex index = FriendIndex.build(Arrays.asList(friend("1", "\u00c9lodie"), friend("2", "Zo\u00eb")));
+        assertEquals(Arrays.asList("1"), ids(index.search("elo")));
+        assertEquals(Arrays.asList("1"), ids(index.search("\u00c9LO")));
+        assertEquals(Arrays.asList("2"), ids(index.search("zoe")));
+    }
+
+    @Test
+    public void friendMatchingTwice_isReturnedOnce() {
+        FriendIndex index = FriendIndex.build(Arrays.asList(friend("1", "Ann Annabel")));
+        assertEquals(Arrays.asList("1"), ids(index.search("ann")));
+    }
+
+    @Test
+    public void lookups_byUid() {
+        Friend anna = friend("1", "Anna");
+        FriendIndex index = FriendIndex.build(Arrays.asList(anna, friend("2", null)));
+        assertTrue(index.contains("1"));
+        assertTrue(index.contains("2"));
+        assertFalse(index.contains("3"));
+        assertSame(anna, index.getFriend("1"));
+        assertSame(index.getFriendIds(), index.getFriendIds());
+        assertEquals(2, index.size());
+        assertSame(FriendIndex.EMPTY, FriendIndex.build(new ArrayList<Friend>()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshot_isImmutable() {
+        FriendIndex.build(Arrays.asList(friend("1", "Anna"))).getFriends().clear();
+    }
+
+    @Test
+    public void search_agreesWithMatches() {
+        List<Friend> friends = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            friends.add(friend(String.valueOf(i), "User Name " + Integer.toString(i * 7919, 36)));
+        }
+        FriendIndex index = FriendIndex.build(friends);
+        for (String query : new String[]{"k", "ab", "abc", "z1", "q7x", "user n", "NAME"}) {
+            Set<Friend> expected = new HashSet<>();
+            for (Friend friend : friends) {
+                if (FriendIndex.matches(friend, query)) {
+                    expected.add(friend);
+                }
+            }
+            assertEquals(query, expected, new HashSet<>(index.search(query)));
+        }
+    }
+
+    private static Friend friend(String userId, String username) {
+        return new Friend(userId, username, null, null);
+    }
+
+    private static List<String> ids(List<Friend> friends) {
+        List<String> ids = new ArrayList<>();
+        for (Friend friend : friends) {
+            ids.add(friend.getUserId());
+        }
+        return ids;
+    }
+}
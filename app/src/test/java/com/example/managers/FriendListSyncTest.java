@@ -0,0 +1,186 @@
+package com.example.managers;
+
+import com.example.helpers.ProfileLoader;
+import com.example.model.Friend;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FriendListSync}. The fake backend counts the profile reads, the
+ * child events of the friend list are replayed by the test.
+ */
+public class FriendListSyncTest {
+    private static final int FRIENDS = 200;
+
+    private final CountingSource source = new CountingSource();
+    private final ProfileLoader loader = new ProfileLoader(source, new ProfileLoader.Scheduler() {
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+        }
+    }, ProfileLoader.DEFAULT_MAX_IN_FLIGHT, ProfileLoader.DEFAULT_TIMEOUT);
+    private final RecordingListener friends = new RecordingListener();
+    private final RecordingScheduler retries = new RecordingScheduler();
+    private final FriendListSync sync = new FriendListSync(loader, retries, friends);
+
+    @Test
+    public void friendshipChange_readsOneProfile() {
+        for (int i = 0; i < FRIENDS; i++) {
+            sync.onFriendAdded("friend" + i);
+        }
+        assertEquals(FRIENDS, source.reads);
+        assertEquals(FRIENDS, friends.friends.size());
+        assertEquals(FRIENDS, friends.changes);
+
+        source.reads = 0;
+        friends.changes = 0;
+        sync.onFriendAdded("new friend");
+        assertEquals(1, source.reads);
+        sync.onFriendRemoved("friend7");
+        assertEquals(1, source.reads);
+        assertEquals(2, friends.changes);
+        assertEquals(FRIENDS, friends.friends.size());
+        assertFalse(friends.friends.containsKey("friend7"));
+        assertTrue(friends.friends.containsKey("new friend"));
+    }
+
+    @Test
+    public void duplicateEntries_removeFriendWithLastEntry() {
+        sync.onFriendAdded("a");
+        sync.onFriendAdded("a");
+        assertEquals(1, source.reads);
+        sync.onFriendRemoved("a");
+        assertTrue(friends.friends.containsKey("a"));
+        sync.onFriendRemoved("a");
+        assertFalse(friends.friends.containsKey("a"));
+        sync.onFriendRemoved("a");
+        assertEquals(2, friends.changes);
+    }
+
+    @Test
+    public void removedWhileReading_isNotAdded() {
+        source.answerLater = true;
+        sync.onFriendAdded("a");
+        sync.onFriendRemoved("a");
+        source.answerPending();
+        assertTrue(friends.friends.isEmpty());
+
+        // removed and added again: only the read of the second addition counts
+        sync.onFriendAdded("b");
+        sync.onFriendRemoved("b");
+        sync.onFriendAdded("b");
+        source.answerPending();
+        assertEquals(1, friends.friends.size());
+        assertEquals(1, friends.changes);
+    }
+
+    @Test
+    public void failedRead_isRetriedWithBackoff() {
+        source.failures = 2;
+        sync.onFriendAdded("a");
+        assertTrue(friends.friends.isEmpty());
+        assertEquals(Long.valueOf(FriendListSync.RETRY_DELAY), retries.delays.get(0));
+
+        retries.runNext();
+        assertEquals(Long.valueOf(2 * FriendListSync.RETRY_DELAY), retries.delays.get(1));
+        retries.runNext();
+        assertEquals(3, source.reads);
+        assertEquals(2, friends.failures);
+        assertTrue(friends.friends.containsKey("a"));
+        assertTrue(retries.tasks.isEmpty());
+    }
+
+    @Test
+    public void removedFriend_isNotRetried() {
+        source.failures = 1;
+        sync.onFriendAdded("a");
+        assertEquals(1, retries.tasks.size());
+        sync.onFriendRemoved("a");
+        assertTrue(retries.tasks.isEmpty());
+        assertEquals(1, source.reads);
+        assertEquals(1, friends.failures);
+        assertEquals(0, friends.changes);
+    }
+
+    private static class RecordingScheduler implements ProfileLoader.Scheduler {
+        final List<Runnable> tasks = new ArrayList<>();
+        final List<Long> delays = new ArrayList<>();
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            tasks.add(task);
+            delays.add(delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            tasks.remove(task);
+        }
+
+        void runNext() {
+            tasks.remove(0).run();
+        }
+    }
+
+    private static class CountingSource implements ProfileLoader.Source {
+        int reads;
+        int failures;  // number of reads failing before the next ones succeed
+        boolean answerLater;
+        private final List<Object[]> pending = new ArrayList<>();
+
+        @Override
+        public void read(String userId, ProfileLoader.ProfileCallback callback) {
+            reads++;
+            if (failures > 0) {
+                failures--;
+                callback.onFailed(new Exception("read of " + userId + " timed out"));
+            } else if (answerLater) {
+                pending.add(new Object[]{userId, callback});
+            } else {
+                callback.onProfileLoaded(new Friend(userId, "user " + userId, null, null));
+            }
+        }
+
+        void answerPending() {
+            List<Object[]> answers = new ArrayList<>(pending);
+            pending.clear();
+            for (Object[] answer : answers) {
+                String userId = (String) answer[0];
+                ((ProfileLoader.ProfileCallback) answer[1]).onProfileLoaded(new Friend(userId, "user " + userId, null, null));
+            }
+        }
+    }
+
+    private static class RecordingListener implements FriendListSync.Listener {
+        final Map<String, Friend> friends = new LinkedHashMap<>();
+        int changes;
+        int failures;
+
+        @Override
+        public void onFriendAdded(Friend friend) {
+            friends.put(friend.getUserId(), friend);
+            changes++;
+        }
+
+        @Override
+        public void onFriendRemoved(String friendId) {
+            friends.remove(friendId);
+            changes++;
+        }
+
+        @Override
+        public void onFriendReadFailed(String friendId, Exception e, long retryDelay) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.services;
+
+import com.example.helpers.GeoHash;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link KalmanLocationFilter}, replaying a recorded trace with
+ * ground truth through the upload gate with and without the filter.
+ */
+public class KalmanLocationFilterTest {
+    // upload gate used for the comparison: 10 m or once a minute
+    private static final float MIN_DISTANCE = 10;
+    private static final long MIN_TIME = 60000;
+
+    private static class Fix {
+        long timestamp;
+        double latitude;
+        double longitude;
+        float accuracy;
+        double trueLatitude;
+        double trueLongitude;
+    }
+
+    private static class ReplayResult {
+        int uploads;
+        double rmsError;
+    }
+
+    @Test
+    public void filter_reducesUploadsAndError() throws IOException {
+        List<Fix> trace = loadTrace("location_traces/walk_with_stops.csv");
+        ReplayResult truth = replay(trace, null, true);
+        ReplayResult raw = replay(trace, null, false);
+        KalmanLocationFilter filter = new KalmanLocationFilter();
+        ReplayResult filtered = replay(trace, filter, false);
+
+        // uploads caused by jitter are the ones above what the true path needs
+        assertTrue(filtered.uploads - truth.uploads < (raw.uploads - truth.uploads) * 0.7);
+        assertTrue(filtered.rmsError < raw.rmsError * 0.6);
+        assertEquals(3, filter.getRejectedCount());
+    }
+
+    @Test
+    public void filter_convergesOnStationaryJitter() {
+        KalmanLocationFilter filter = new KalmanLocationFilter();
+        double[] offsets = {8, -6, 5, -9, 7, -4, 6, -7, 3, -5};
+        for (int i = 0; i < 60; i++) {
+            double offset = offsets[i % offsets.length] / 111000.0;
+            assertTrue(filter.update(i * 5000L, -37.8 + offset, 144.9 - offset, 10f));
+        }
+        double error = GeoHash.distance(-37.8, 144.9, filter.getLatitude(), filter.getLongitude());
+        // the raw fixes are up to 13 m away from the true position
+        assertTrue("error " + error, error < 4);
+    }
+
+    @Test
+    public void filter_rejectsSingleOutlier() {
+        KalmanLocationFilter filter = new KalmanLocationFilter();
+        for (int i = 0; i < 10; i++) {
+            filter.update(i * 5000L, -37.8, 144.9, 5f);
+        }
+        assertFalse(filter.update(50000L, -37.8 + 0.002, 144.9, 5f));
+        assertEquals(-37.8, filter.getLatitude(), 1e-6);
+        assertTrue(filter.update(55000L, -37.8, 144.9, 5f));
+    }
+
+    @Test
+    public void filter_followsARealJumpAfterConsecutiveRejections() {
+        KalmanLocationFilter filter = new KalmanLocationFilter();
+        for (int i = 0; i < 10; i++) {
+            filter.update(i * 5000L, -37.8, 144.9, 5f);
+        }
+        assertFalse(filter.update(50000L, -37.81, 144.9, 5f));
+        assertFalse(filter.update(55000L, -37.81, 144.9, 5f));
+        assertTrue(filter.update(60000L, -37.81, 144.9, 5f));
+        assertEquals(-37.81, filter.getLatitude(), 1e-6);
+    }
+
+    @Test
+    public void gate_passesOnDistanceOrTime() {
+        LocationUploadGate gate = new LocationUploadGate();
+        assertFalse(gate.shouldUpload(0, -37.8, 144.9, 10, 60000));
+        assertFalse(gate.shouldUpload(5000, -37.80005, 144.9, 10, 60000));
+        assertTrue(gate.shouldUpload(10000, -37.8001, 144.9, 10, 60000));
+        assertFalse(gate.shouldUpload(15000, -37.8001, 144.9, 10, 60000));
+        assertTrue(gate.shouldUpload(70000, -37.8001, 144.9, 10, 60000));
+    }
+
+    private static ReplayResult replay(List<Fix> trace, LocationFilter filter, boolean groundTruth) {
+        LocationUploadGate gate = new LocationUploadGate();
+        ReplayResult result = new ReplayResult();
+        double squaredError = 0;
+        for (Fix fix : trace) {
+            double latitude = groundTruth ? fix.trueLatitude : fix.latitude;
+            double longitude = groundTruth ? fix.trueLongitude : fix.longitude;
+            if (filter != null) {
+                if (!filter.update(fix.timestamp, fix.latitude, fix.longitude, fix.accuracy)) {
+                    continue;
+                }
+                latitude = filter.getLatitude();
+                longitude = filter.getLongitude();
+            }
+            double error = GeoHash.distance(latitude, longitude, fix.trueLatitude, fix.trueLongitude);
+            squaredError += error * error;
+            if (gate.shouldUpload(fix.timestamp, latitude, longitude, MIN_DISTANCE, MIN_TIME)) {
+                result.uploads++;
+            }
+        }
+        result.rmsError = Math.sqrt(squaredError / trace.size());
+        return result;
+    }
+
+    private List<Fix> loadTrace(String name) throws IOException {
+        InputStream stream = getClass().getClassLoader().getResourceAsStream(name);
+        assertNotNull("missing trace " + name, stream);
+        List<Fix> trace = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split(",");
+                Fix fix = new Fix();
+                fix.timestamp = Long.parseLong(columns[0]);
+                fix.latitude = Double.parseDouble(columns[1]);
+                fix.longitude = Double.parseDouble(columns[2]);
+                fix.accuracy = Float.parseFloat(columns[3]);
+                fix.trueLatitude = Double.parseDouble(columns[4]);
+                fix.trueLongitude = Double.parseDouble(columns[5]);
+                trace.add(fix);
+            }
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.services;
+
+import com.example.model.LocationData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocationHistoryStore}, on segment files in a temporary directory.
+ */
+public class LocationHistoryStoreTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+    // 2024-01-15 00:00 UTC, the start of a segment
+    private static final long MIDNIGHT = 1705276800000L;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("location_history").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void query_acrossDayBoundary() throws IOException {
+        LocationHistoryStore store = new LocationHistoryStore(directory, 7);
+        // one fix a minute from 23:00 to 01:00
+        for (long time = MIDNIGHT - 60 * MINUTE; time <= MIDNIGHT + 60 * MINUTE; time += MINUTE) {
+            assertTrue(store.append(time, -37.8, 144.9, 1.5f, 80));
+        }
+        assertEquals(2, segmentCount());
+
+        List<LocationData> range = store.query(MIDNIGHT - 2 * MINUTE, MIDNIGHT + 2 * MINUTE);
+        assertEquals(5, range.size());
+        assertEquals(MIDNIGHT - 2 * MINUTE, range.get(0).getTimestamp());
+        assertEquals(MIDNIGHT + 2 * MINUTE, range.get(4).getTimestamp());
+        assertEquals(-37.8, range.get(0).getLatitude(), 0);
+        assertEquals(80, range.get(4).getBatteryLevel());
+
+        // the records of a range are visited in order without LocationData objects
+        final long[] previous = {Long.MIN_VALUE};
+        int visited = store.query(MIDNIGHT - DAY, MIDNIGHT + DAY, (timestamp, latitude, longitude, speed, battery) -> {
+            assertTrue(timestamp > previous[0]);
+            previous[0] = timestamp;
+        });
+        assertEquals(121, visited);
+        assertEquals(0, store.query(MIDNIGHT + 61 * MINUTE, MIDNIGHT + DAY).size());
+        assertEquals(0, store.query(MIDNIGHT, MIDNIGHT - 1).size());
+        store.close();
+    }
+
+    @Test
+    public void append_ignoresOlderRecords() throws IOException {
+        LocationHistoryStore store = new LocationHistoryStore(directory, 7);
+        assertTrue(store.append(MIDNIGHT + 10 * MINUTE, 1, 2, 0, 50));
+        assertFalse(store.append(MIDNIGHT + 5 * MINUTE, 1, 2, 0, 50));
+        assertFalse(store.append(MIDNIGHT - MINUTE, 1, 2, 0, 50));
+        assertEquals(1, store.query(MIDNIGHT - DAY, MIDNIGHT + DAY).size());
+        store.close();
+    }
+
+    @Test
+    public void compact_deletesSegmentsPastRetention() throws IOException {
+        LocationHistoryStore store = new LocationHistoryStore(directory, 3);
+        for (int day = 0; day < 3; day++) {
+            store.append(MIDNIGHT + day * DAY + MINUTE, day, day, 0, 50);
+        }
+        assertEquals(3, segmentCount());
+
+        // opening the segment of a later day drops the days past retention
+        store.append(MIDNIGHT + 4 * DAY + MINUTE, 4, 4, 0, 50);
+        assertEquals(2, segmentCount());
+        assertEquals(2, store.query(MIDNIGHT, MIDNIGHT + 5 * DAY).size());
+        assertEquals(0, store.query(MIDNIGHT, MIDNIGHT + DAY).size());
+
+        assertEquals(1, store.compact(MIDNIGHT + 6 * DAY));
+        assertEquals(1, store.query(MIDNIGHT, MIDNIGHT + 7 * DAY).size());
+        store.close();
+    }
+
+    @Test
+    public void reopen_afterClose() throws IOException {
+        LocationHistoryStore store = new LocationHistoryStore(directory, 7);
+        for (int i = 0; i < 10; i++) {
+            store.append(MIDNIGHT - 5 * MINUTE + i * MINUTE, i, i, 0, 50);
+        }
+        store.close();
+        // sealed segments are trimmed to their records
+        assertEquals(8 + 5 * LocationHistoryStore.RECORD_SIZE, new File(directory, (MIDNIGHT / DAY) + ".seg").length());
+
+        LocationHistoryStore reopened = new LocationHistoryStore(directory, 7);
+        assertEquals(10, reopened.query(MIDNIGHT - DAY, MIDNIGHT + DAY).size());
+        assertTrue(reopened.append(MIDNIGHT + 5 * MINUTE, 10, 10, 0, 50));
+        assertFalse(reopened.append(MIDNIGHT + MINUTE, 0, 0, 0, 50));
+        List<LocationData> all = reopened.query(MIDNIGHT - DAY, MIDNIGHT + DAY);
+        assertEquals(11, all.size());
+        assertEquals(10, all.get(10).getLatitude(), 0);
+        reopened.close();
+    }
+
+    @Test
+    public void reopen_afterProcessDeath() throws IOException {
+        LocationHistoryStore store = new LocationHistoryStore(directory, 7);
+        List<Long> times = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            times.add(MIDNIGHT + i * MINUTE);
+            store.append(MIDNIGHT + i * MINUTE, i, i, 0, 50);
+        }
+        // never closed: the segment keeps its preallocated space and the record count of the header
+
+        LocationHistoryStore reopened = new LocationHistoryStore(directory, 7);
+        List<LocationData> recovered = reopened.query(MIDNIGHT, MIDNIGHT + DAY);
+        assertEquals(20, recovered.size());
+        for (int i = 0; i < recovered.size(); i++) {
+            assertEquals((long) times.get(i), recovered.get(i).getTimestamp());
+        }
+        assertTrue(reopened.append(MIDNIGHT + 30 * MINUTE, 30, 30, 0, 50));
+        assertEquals(21, reopened.query(MIDNIGHT, MIDNIGHT + DAY).size());
+        reopened.close();
+    }
+
+    private int segmentCount() {
+        File[] files = directory.listFiles();
+        return files == null ? 0 : files.length;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.services;
+
+import org.junit.Test;
+
+import static com.example.services.LocationMetrics.Counter.FIXES_ACCEPTED;
+import static com.example.services.LocationMetrics.Counter.FIXES_RECEIVED;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocationMetrics}, the time is passed in by the test.
+ */
+public class LocationMetricsTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long START = 1705276800000L;
+
+    private final LocationMetrics metrics = new LocationMetrics(START);
+
+    @Test
+    public void counters_lastMinuteHourAndTotal() {
+        metrics.add(FIXES_RECEIVED, 3, START);
+        metrics.add(FIXES_RECEIVED, 2, START + 30 * 1000);
+        metrics.add(FIXES_RECEIVED, 4, START + 10 * MINUTE);
+        metrics.add(FIXES_ACCEPTED, 1, START + 10 * MINUTE);
+
+        long now = START + 10 * MINUTE + 1;
+        assertEquals(4, metrics.getLastMinutes(FIXES_RECEIVED, 1, now));
+        assertEquals(9, metrics.getLastMinutes(FIXES_RECEIVED, 60, now));
+        assertEquals(9, metrics.getTotal(FIXES_RECEIVED));
+        assertEquals(1, metrics.getTotal(FIXES_ACCEPTED));
+    }
+
+    @Test
+    public void window_rollsOverAfterOneHour() {
+        metrics.add(FIXES_RECEIVED, 5, START);
+        metrics.add(FIXES_RECEIVED, 7, START + 30 * MINUTE);
+        assertEquals(12, metrics.getLastMinutes(FIXES_RECEIVED, 60, START + 59 * MINUTE));
+        // the first minute leaves the window
+        assertEquals(7, metrics.getLastMinutes(FIXES_RECEIVED, 60, START + 60 * MINUTE));
+        assertEquals(0, metrics.getLastMinutes(FIXES_RECEIVED, 60, START + 90 * MINUTE));
+
+        // a slot reused an hour later starts from zero
+        metrics.add(FIXES_RECEIVED, 1, START + 60 * MINUTE);
+        assertEquals(8, metrics.getLastMinutes(FIXES_RECEIVED, 60, START + 60 * MINUTE));
+        assertEquals(1, metrics.getLastMinutes(FIXES_RECEIVED, 1, START + 60 * MINUTE));
+        assertEquals(13, metrics.getTotal(FIXES_RECEIVED));
+    }
+
+    @Test
+    public void latencyHistogram_rollsOver() {
+        metrics.recordUploadLatency(80, START);
+        metrics.recordUploadLatency(400, START + 30 * MINUTE);
+        long[] histogram = metrics.lastHourLatencies(START + 30 * MINUTE);
+        assertEquals(1, histogram[1]);
+        assertEquals(1, histogram[3]);
+
+        histogram = metrics.lastHourLatencies(START + 61 * MINUTE);
+        assertEquals(0, histogram[1]);
+        assertEquals(1, histogram[3]);
+    }
+
+    @Test
+    public void percentile_isUpperBoundOfBucket() {
+        for (int i = 0; i < 90; i++) {
+            metrics.recordUploadLatency(40, START);
+        }
+        for (int i = 0; i < 8; i++) {
+            metrics.recordUploadLatency(700, START);
+        }
+        metrics.recordUploadLatency(3000, START);
+        metrics.recordUploadLatency(60000, START);
+        long[] histogram = metrics.lastHourLatencies(START);
+
+        assertEquals(50, LocationMetrics.percentile(histogram, 0.5));
+        assertEquals(50, LocationMetrics.percentile(histogram, 0.9));
+        assertEquals(1000, LocationMetrics.percentile(histogram, 0.95));
+        assertEquals(5000, LocationMetrics.percentile(histogram, 0.99));
+        // in the unbounded bucket
+        assertEquals(-1, LocationMetrics.percentile(histogram, 1));
+        assertEquals(-1, LocationMetrics.percentile(new long[histogram.length], 0.5));
+    }
+
+    @Test
+    public void json_containsCountersAndGauges() {
+        metrics.add(FIXES_RECEIVED, 2);
+        metrics.setGauge(LocationMetrics.Gauge.PENDING_UPLOADS, 1);
+        String json = metrics.toJson();
+        // the last minute depends on the clock, the hour and the total do not
+        assertTrue(json, json.matches(".*\"fixes_received\":\\{\"lastMinute\":\\d+,\"lastHour\":2,\"total\":2}.*"));
+        assertTrue(json, json.contains("\"pending_uploads\":1"));
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.util;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link AccelerometerStepDetector}, replaying recorded 20 Hz accelerometer
+ * traces. The first line of each trace gives the number of steps taken.
+ */
+public class AccelerometerStepDetectorTest {
+    private static final Pattern STEPS = Pattern.compile(", (\\d+) steps$");
+
+    @Test
+    public void walk_countsSteps() throws IOException {
+        assertCount("accelerometer_traces/walk.csv", 0.05);
+    }
+
+    @Test
+    public void slowWalk_countsSteps() throws IOException {
+        assertCount("accelerometer_traces/slow_walk.csv", 0.05);
+    }
+
+    @Test
+    public void run_countsSteps() throws IOException {
+        assertCount("accelerometer_traces/run.csv", 0.05);
+    }
+
+    @Test
+    public void shakingStillPhone_countsNothing() throws IOException {
+        assertCount("accelerometer_traces/still_and_shake.csv", 0);
+    }
+
+    @Test
+    public void onSample_doesNotAllocate() throws IOException {
+        Trace trace = loadTrace("accelerometer_traces/walk.csv");
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;  // allocation counters not available on this JVM
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+        AccelerometerStepDetector detector = new AccelerometerStepDetector();
+        replay(detector, trace);  // warm up
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 20; i++) {
+            replay(detector, trace);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        // a few bytes of bookkeeping by the JVM itself, far from one object per sample
+        assertTrue(allocated + " bytes allocated", allocated < 20 * trace.size);
+    }
+
+    private void assertCount(String name, double tolerance) throws IOException {
+        Trace trace = loadTrace(name);
+        AccelerometerStepDetector detector = new AccelerometerStepDetector();
+        int counted = replay(detector, trace);
+        assertEquals(counted, detector.getStepCount());
+        assertEquals(name, trace.steps, counted, Math.ceil(trace.steps * tolerance));
+    }
+
+    private static int replay(AccelerometerStepDetector detector, Trace trace) {
+        int counted = 0;
+        for (int i = 0; i < trace.size; i++) {
+            counted += detector.onSample(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+        }
+        return counted;
+    }
+
+    private Trace loadTrace(String name) throws IOException {
+        InputStream stream = getClass().getClassLoader().getResourceAsStream(name);
+        assertNotNull("missing trace " + name, stream);
+        Trace trace = new Trace();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    Matcher matcher = STEPS.matcher(line);
+                    if (matcher.find()) {
+                        trace.steps = Integer.parseInt(matcher.group(1));
+                    }
+                    continue;
+                }
+                String[] fields = line.split(",");
+                trace.add(Long.parseLong(fields[0]), Float.parseFloat(fields[1]),
+                        Float.parseFloat(fields[2]), Float.parseFloat(fields[3]));
+            }
+        }
+        return trace;
+    }
+
+    // samples in primitive arrays, so that the replay itself does not allocate
+    private static class Trace {
+        int steps;
+        int size;
+        long[] timestamps = new long[1024];
+        float[] x = new float[1024];
+        float[] y = new float[1024];
+        float[] z = new float[1024];
+
+        void add(long timestamp, float sampleX, float sampleY, float sampleZ) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                x = Arrays.copyOf(x, size * 2);
+                y = Arrays.copyOf(y, size * 2);
+                z = Arrays.copyOf(z, size * 2);
+            }
+            timestamps[size] = timestamp;
+            x[size] = sampleX;
+            y[size] = sampleY;
+            z[size] = sampleZ;
+            size++;
+        }
+    }
+}
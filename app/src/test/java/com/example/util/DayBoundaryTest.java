@@ -0,0 +1,86 @@
+package com.example.util;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DayBoundary}, checked against the previous date formatting path.
+ */
+public class DayBoundaryTest {
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+
+    // 2024-03-30 12:00 in Berlin (UTC+1), the clocks move forward the next night
+    private static final long BEFORE_SPRING_FORWARD = 1711796400000L;
+
+    @Test
+    public void nextMidnight_isLocalMidnight() {
+        DayBoundary boundary = new DayBoundary(BERLIN, BEFORE_SPRING_FORWARD);
+        assertEquals("2024-03-30", boundary.getDate());
+        assertEquals(BEFORE_SPRING_FORWARD - 12 * HOUR, boundary.getDayStart());
+        assertEquals(BEFORE_SPRING_FORWARD + 12 * HOUR, boundary.getNextMidnight());
+        assertFalse(boundary.isNewDay(BEFORE_SPRING_FORWARD + 12 * HOUR - 1));
+        assertTrue(boundary.isNewDay(BEFORE_SPRING_FORWARD + 12 * HOUR));
+    }
+
+    @Test
+    public void dstDay_has23Hours() {
+        DayBoundary boundary = new DayBoundary(BERLIN, BEFORE_SPRING_FORWARD);
+        boundary.advance(boundary.getNextMidnight());
+        assertEquals("2024-03-31", boundary.getDate());
+        assertEquals(23 * HOUR, boundary.getNextMidnight() - boundary.getDayStart());
+    }
+
+    @Test
+    public void skippedMidnight_startsAtFirstValidTime() {
+        // 2018-11-04 in Sao Paulo: the clocks moved from 00:00 to 01:00
+        TimeZone saoPaulo = TimeZone.getTimeZone("America/Sao_Paulo");
+        long noon = 1541340000000L;  // 2018-11-04 12:00 local (UTC-2)
+        DayBoundary boundary = new DayBoundary(saoPaulo, noon);
+        assertEquals("2018-11-04", boundary.getDate());
+        assertEquals(noon - 11 * HOUR, boundary.getDayStart());
+        assertEquals(noon + 12 * HOUR, boundary.getNextMidnight());
+    }
+
+    @Test
+    public void clockSetBack_isNewDay() {
+        DayBoundary boundary = new DayBoundary(BERLIN, BEFORE_SPRING_FORWARD);
+        assertTrue(boundary.isNewDay(BEFORE_SPRING_FORWARD - 13 * HOUR));
+        boundary.advance(BEFORE_SPRING_FORWARD - 13 * HOUR);
+        assertEquals("2024-03-29", boundary.getDate());
+    }
+
+    @Test
+    public void reset_movesToNewTimeZone() {
+        DayBoundary boundary = new DayBoundary(BERLIN, BEFORE_SPRING_FORWARD);
+        // 11:00 UTC is already the next day in Auckland (UTC+13)
+        boundary.reset(TimeZone.getTimeZone("Pacific/Auckland"), BEFORE_SPRING_FORWARD);
+        assertEquals("2024-03-31", boundary.getDate());
+        assertFalse(boundary.isNewDay(BEFORE_SPRING_FORWARD));
+    }
+
+    @Test
+    public void isNewDay_agreesWithDateFormatting() {
+        // every 7 minutes for a week around the spring forward, the path StepDateUtils.getCurrentDate took
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setTimeZone(BERLIN);
+        long time = BEFORE_SPRING_FORWARD - 3 * 24 * HOUR;
+        DayBoundary boundary = new DayBoundary(BERLIN, time);
+        int changes = 0;
+        for (; time < BEFORE_SPRING_FORWARD + 4 * 24 * HOUR; time += 7 * 60 * 1000) {
+            String date = format.format(new Date(time));
+            assertEquals(date, !date.equals(boundary.getDate()), boundary.isNewDay(time));
+            if (boundary.isNewDay(time)) {
+                boundary.advance(time);
+                assertEquals(date, boundary.getDate());
+                changes++;
+            }
+        }
+        assertEquals(7, changes);
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PreferenceStore}, the writes are queued and run by the test.
+ */
+public class PreferenceStoreTest {
+    private File file;
+    private final List<Runnable> writes = new ArrayList<>();
+    private final Executor writer = writes::add;
+    // messages of the errors the store recovered from
+    private final List<String> errors = new ArrayList<>();
+    private final PreferenceStore.ErrorListener errorListener = (message, e) -> errors.add(message);
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("step_preferences", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void typedValues_roundTrip() throws IOException {
+        PreferenceStore store = new PreferenceStore(file, writer, errorListener);
+        assertFalse(store.exists());
+        store.edit().putInt("int", -7).putLong("long", 1L << 40).putBoolean("boolean", true)
+                .putString("string", "caf\u00e9").commit();
+        assertEquals(-7, store.getInt("int", 0));
+        store.flush();
+
+        PreferenceStore reopened = new PreferenceStore(file, writer, errorListener);
+        assertTrue(reopened.exists());
+        assertEquals(-7, reopened.getInt("int", 0));
+        assertEquals(1L << 40, reopened.getLong("long", 0));
+        assertTrue(reopened.getBoolean("boolean", false));
+        assertEquals("caf\u00e9", reopened.getString("string", null));
+        // a value of another type is not converted
+        assertEquals(3, reopened.getInt("long", 3));
+        assertEquals("none", reopened.getString("missing", "none"));
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void commits_areCoalescedIntoOneWrite() {
+        PreferenceStore store = new PreferenceStore(file, writer, errorListener);
+        for (int i = 1; i <= 10; i++) {
+            store.edit().putInt("step", i).commit();
+        }
+        assertEquals(1, writes.size());
+        assertEquals(0, store.getWriteCount());
+        writes.remove(0).run();
+        assertEquals(1, store.getWriteCount());
+        assertEquals(10, new PreferenceStore(file, writer, errorListener).getInt("step", 0));
+
+        // an unchanged value schedules nothing
+        store.edit().putInt("step", 10).commit();
+        assertTrue(writes.isEmpty());
+    }
+
+    @Test
+    public void remove_isPersisted() throws IOException {
+        PreferenceStore store = new PreferenceStore(file, writer, errorListener);
+        store.edit().putInt("a", 1).putInt("b", 2).commit();
+        store.flush();
+        store.edit().remove("a").putString("b", null).commit();
+        store.flush();
+
+        PreferenceStore reopened = new PreferenceStore(file, writer, errorListener);
+        assertFalse(reopened.contains("a"));
+        assertFalse(reopened.contains("b"));
+        assertTrue(reopened.exists());
+    }
+
+    @Test
+    public void flush_writesOnlyWhenDirty() throws IOException {
+        PreferenceStore store = new PreferenceStore(file, writer, errorListener);
+        store.edit().putLong("time", 5).commit();
+        store.flush();
+        // the scheduled write finds nothing left to write
+        writes.remove(0).run();
+        store.flush();
+        assertEquals(1, store.getWriteCount());
+        assertEquals(5, new PreferenceStore(file, writer, errorListener).getLong("time", 0));
+    }
+
+    @Test
+    public void wrongMagic_startsEmpty() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x12345678);
+            out.writeInt(0);
+        }
+        assertCorruptFileDropped();
+    }
+
+    @Test
+    public void unknownType_startsEmpty() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x53505246);
+            out.writeInt(1);
+            out.writeUTF("step");
+            out.writeByte(42);
+        }
+        assertCorruptFileDropped();
+    }
+
+    @Test
+    public void truncatedFile_startsEmpty() throws IOException {
+        PreferenceStore store = new PreferenceStore(file, writer, errorListener);
+        store.edit().putInt("step", 1).putString("today", "2024-01-15").commit();
+        store.flush();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        assertCorruptFileDropped();
+    }
+
+    private void assertCorruptFileDropped() throws IOException {
+        PreferenceStore store = new PreferenceStore(file, writer, errorListener);
+        assertFalse(store.contains("step"));
+        assertFalse(store.exists());
+        assertEquals(1, errors.size());
+        // usable again, the next write replaces the file
+        store.edit().putInt("step", 3).commit();
+        store.flush();
+        assertEquals(3, new PreferenceStore(file, writer, errorListener).getInt("step", 0));
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RankedList}, checked against a sorted array list.
+ */
+public class RankedListTest {
+    private static final Comparator<Integer> DESCENDING = Collections.reverseOrder();
+
+    @Test
+    public void insert_returnsRank() {
+        RankedList<Integer> list = new RankedList<>(DESCENDING);
+        assertEquals(0, list.insert(5));
+        assertEquals(1, list.insert(3));
+        assertEquals(0, list.insert(8));
+        assertEquals(2, list.insert(4));
+        assertEquals(4, list.size());
+        assertEquals(8, (int) list.get(0));
+        assertEquals(5, (int) list.get(1));
+        assertEquals(4, (int) list.get(2));
+        assertEquals(3, (int) list.get(3));
+    }
+
+    @Test
+    public void delete_returnsFormerRank() {
+        RankedList<Integer> list = new RankedList<>(DESCENDING);
+        for (int i = 0; i < 10; i++) {
+            list.insert(i);
+        }
+        assertEquals(2, list.delete(7));
+        assertEquals(-1, list.delete(7));
+        assertEquals(-1, list.rankOf(7));
+        assertEquals(9, list.size());
+        assertEquals(6, (int) list.get(2));
+    }
+
+    @Test
+    public void insertEqual_replacesElement() {
+        RankedList<Integer> list = new RankedList<>(DESCENDING);
+        list.insert(1);
+        list.insert(2);
+        assertEquals(0, list.insert(2));
+        assertEquals(2, list.size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_outOfBounds() {
+        RankedList<Integer> list = new RankedList<>(DESCENDING);
+        list.insert(1);
+        list.get(1);
+    }
+
+    @Test
+    public void randomOperations_matchSortedList() {
+        Random random = new Random(42);
+        RankedList<Integer> list = new RankedList<>(DESCENDING);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            Integer value = random.nextInt(2000);
+            int index = Collections.binarySearch(expected, value, DESCENDING);
+            if (random.nextBoolean()) {
+                int rank = list.insert(value);
+                if (index < 0) {
+                    expected.add(-index - 1, value);
+                }
+                assertEquals(Collections.binarySearch(expected, value, DESCENDING), rank);
+            } else {
+                assertEquals(index < 0 ? -1 : index, list.delete(value));
+                if (index >= 0) {
+                    expected.remove(index);
+                }
+            }
+        }
+        assertEquals(expected, list);
+    }
+
+    @Test
+    public void rerank_matchesSortedArrayList() {
+        int size = 10000;
+        int moves = 5000;
+        RankedList<Integer> ranked = new RankedList<>(DESCENDING);
+        List<Integer> array = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            ranked.insert(i * 2);
+            array.add(0, i * 2);
+        }
+
+        Random random = new Random(7);
+        for (int i = 0; i < moves; i++) {
+            Integer from = random.nextInt(size) * 2;
+            if (ranked.delete(from) >= 0) {
+                ranked.insert(from + 1 - 2 * (i % 2));
+            }
+        }
+
+        random = new Random(7);
+        for (int i = 0; i < moves; i++) {
+            Integer from = random.nextInt(size) * 2;
+            int index = Collections.binarySearch(array, from, DESCENDING);
+            if (index >= 0) {
+                array.remove(index);
+                Integer to = from + 1 - 2 * (i % 2);
+                int insert = Collections.binarySearch(array, to, DESCENDING);
+                if (insert < 0) {
+                    array.add(-insert - 1, to);
+                }
+            }
+        }
+
+        assertEquals(array, new ArrayList<>(ranked));
+    }
+}
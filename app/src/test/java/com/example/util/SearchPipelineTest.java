@@ -0,0 +1,139 @@
+package com.example.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SearchPipeline}, searching a list of words on a real worker.
+ * Results are delivered on the worker and collected in a queue.
+ */
+public class SearchPipelineTest {
+    private static final List<String> WORDS = Arrays.asList("ant", "anna", "anne", "annex", "bee", "bear", "cat");
+    private static final long DEBOUNCE = 100;
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+    private final BlockingQueue<String> delivered = new LinkedBlockingQueue<>();
+    private final List<String> searched = Collections.synchronizedList(new ArrayList<String>());
+    // answers of the source held back by the test, null to answer right away
+    private volatile BlockingQueue<Runnable> heldAnswers;
+
+    private final SearchPipeline<String> pipeline = new SearchPipeline<>((query, callback) -> {
+        searched.add(query);
+        Runnable answer = () -> {
+            List<String> results = new ArrayList<>();
+            for (String word : WORDS) {
+                if (word.startsWith(query)) {
+                    results.add(word);
+                }
+            }
+            callback.onResults(results);
+        };
+        if (heldAnswers != null) {
+            heldAnswers.add(answer);
+        } else {
+            answer.run();
+        }
+    }, (item, query) -> item.startsWith(query), DEBOUNCE, worker, Runnable::run, new SearchPipeline.Listener<String>() {
+        @Override
+        public void onResults(String query, List<String> results) {
+            delivered.add(query + "=" + results);
+        }
+
+        @Override
+        public void onFailed(String query, Exception e) {
+            delivered.add(query + " failed");
+        }
+    });
+
+    @After
+    public void tearDown() {
+        worker.shutdownNow();
+    }
+
+    @Test
+    public void typing_searchesLastQueryOnly() throws InterruptedException {
+        pipeline.submit("b");
+        pipeline.submit("be");
+        pipeline.submit("bea");
+        assertEquals("bea=[bear]", next());
+        assertNull(delivered.poll(2 * DEBOUNCE, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList("bea"), searched);
+    }
+
+    @Test
+    public void extendedQuery_isNarrowedLocally() throws InterruptedException {
+        pipeline.submitNow("an");
+        assertEquals("an=[ant, anna, anne, annex]", next());
+        pipeline.submitNow("ann");
+        assertEquals("ann=[anna, anne, annex]", next());
+        pipeline.submitNow("anne");
+        assertEquals("anne=[anne, annex]", next());
+        assertEquals(1, pipeline.getSearchCount());
+
+        // a query that does not extend the previous one goes to the source
+        pipeline.submitNow("ca");
+        assertEquals("ca=[cat]", next());
+        assertEquals(2, pipeline.getSearchCount());
+    }
+
+    @Test
+    public void invalidate_searchesAgain() throws InterruptedException {
+        pipeline.submitNow("an");
+        next();
+        pipeline.invalidate();
+        pipeline.submitNow("ann");
+        assertEquals("ann=[anna, anne, annex]", next());
+        assertEquals(Arrays.asList("an", "ann"), searched);
+    }
+
+    @Test
+    public void slowAnswer_doesNotReplaceNewerResults() throws InterruptedException {
+        heldAnswers = new LinkedBlockingQueue<>();
+        pipeline.submitNow("a");
+        Runnable first = heldAnswers.poll(1, TimeUnit.SECONDS);
+        pipeline.submitNow("b");
+        Runnable second = heldAnswers.poll(1, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertNotNull(second);
+
+        second.run();
+        first.run();
+        assertEquals("b=[bee, bear]", next());
+        assertNull(delivered.poll(DEBOUNCE, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void emptyQuery_deliversNothingFound() throws InterruptedException {
+        pipeline.submit("ant");
+        pipeline.submit("  ");
+        assertEquals("=[]", next());
+        assertNull(delivered.poll(2 * DEBOUNCE, TimeUnit.MILLISECONDS));
+        assertTrue(searched.isEmpty());
+    }
+
+    @Test
+    public void cancel_dropsPendingQuery() throws InterruptedException {
+        pipeline.submit("ant");
+        pipeline.cancel();
+        assertNull(delivered.poll(2 * DEBOUNCE, TimeUnit.MILLISECONDS));
+        assertTrue(searched.isEmpty());
+    }
+
+    private String next() throws InterruptedException {
+        String result = delivered.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no results delivered", result);
+        return result;
+    }
+}
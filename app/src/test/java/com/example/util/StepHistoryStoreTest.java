@@ -0,0 +1,145 @@
+package com.example.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StepHistoryStore}, in UTC so that the local days are fixed.
+ */
+public class StepHistoryStoreTest {
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    // 2024-01-15 00:00 UTC, a Monday
+    private static final long MONDAY = 1705276800000L;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("step_history", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void addSteps_fillsHourlyBuckets() throws IOException {
+        StepHistoryStore store = new StepHistoryStore(file, UTC, 30);
+        store.addSteps(MONDAY + 8 * HOUR + 5, 100);
+        store.addSteps(MONDAY + 8 * HOUR + 30 * 60 * 1000, 20);
+        store.addSteps(MONDAY + 23 * HOUR, 7);
+        store.addSteps(MONDAY + 9 * HOUR, 0);
+
+        int day = store.localDay(MONDAY);
+        int[] hours = store.getHourlySteps(day);
+        assertEquals(120, hours[8]);
+        assertEquals(7, hours[23]);
+        assertEquals(0, hours[9]);
+        assertEquals(127, store.getDayTotal(day));
+        assertEquals(0, store.getDayTotal(day + 1));
+        assertEquals(24, store.getHourlySteps(day - 1).length);
+    }
+
+    @Test
+    public void totals_ofDayWeekAndMonth() throws IOException {
+        StepHistoryStore store = new StepHistoryStore(file, UTC, 30);
+        // Sunday before, every day of the week, and the first day of February
+        store.addSteps(MONDAY - DAY, 1);
+        for (int i = 0; i < 7; i++) {
+            store.addSteps(MONDAY + i * DAY + HOUR, 10);
+        }
+        store.addSteps(MONDAY + 17 * DAY, 1000);
+
+        int monday = store.localDay(MONDAY);
+        assertEquals(10, store.getDayTotal(monday + 3));
+        assertEquals(70, store.getWeekTotal(monday));
+        assertEquals(70, store.getWeekTotal(monday + 6));
+        assertEquals(1, store.getWeekTotal(monday - 1));
+        assertEquals(71, store.getMonthTotal(monday));
+        assertEquals(1000, store.getMonthTotal(monday + 17));
+        assertEquals(30, store.getRangeTotal(monday + 1, monday + 3));
+        assertEquals("2024-01-15", StepHistoryStore.dateKey(monday));
+    }
+
+    @Test
+    public void flush_isReloaded() throws IOException {
+        StepHistoryStore store = new StepHistoryStore(file, UTC, 30);
+        // days added out of order move the records already written
+        store.addSteps(MONDAY + 2 * DAY, 30);
+        store.flush();
+        store.addSteps(MONDAY, 10);
+        store.addSteps(MONDAY + DAY + 5 * HOUR, 20);
+        store.flush();
+
+        StepHistoryStore reopened = new StepHistoryStore(file, UTC, 30);
+        int monday = reopened.localDay(MONDAY);
+        assertEquals(10, reopened.getDayTotal(monday));
+        assertEquals(20, reopened.getHourlySteps(monday + 1)[5]);
+        assertEquals(30, reopened.getDayTotal(monday + 2));
+        assertEquals(60, reopened.getWeekTotal(monday));
+    }
+
+    @Test
+    public void flush_dropsDaysPastRetention() throws IOException {
+        StepHistoryStore store = new StepHistoryStore(file, UTC, 3);
+        for (int i = 0; i < 5; i++) {
+            store.addSteps(MONDAY + i * DAY, i + 1);
+        }
+        store.flush();
+
+        int monday = store.localDay(MONDAY);
+        assertEquals(0, store.getDayTotal(monday + 1));
+        assertEquals(3, store.getDayTotal(monday + 2));
+        assertEquals(12, store.getRangeTotal(monday, monday + 4));
+        StepHistoryStore reopened = new StepHistoryStore(file, UTC, 3);
+        assertEquals(12, reopened.getRangeTotal(monday, monday + 4));
+        assertEquals(0, reopened.getDayTotal(monday));
+    }
+
+    @Test
+    public void pendingUploads_untilMarkedUploaded() throws IOException {
+        StepHistoryStore store = new StepHistoryStore(file, UTC, 30);
+        int monday = store.localDay(MONDAY);
+        store.addSteps(MONDAY, 10);
+        store.addSteps(MONDAY + DAY, 20);
+
+        Map<Integer, Integer> pending = store.getPendingUploads();
+        Map<Integer, Integer> expected = new LinkedHashMap<>();
+        expected.put(monday, 10);
+        expected.put(monday + 1, 20);
+        assertEquals(expected, pending);
+
+        store.markUploaded(pending);
+        assertTrue(store.getPendingUploads().isEmpty());
+        // only the day that changed since is uploaded again, also after a restart
+        store.addSteps(MONDAY + DAY, 5);
+        store.flush();
+        StepHistoryStore reopened = new StepHistoryStore(file, UTC, 30);
+        assertEquals(Collections.singletonMap(monday + 1, 25), reopened.getPendingUploads());
+    }
+
+    @Test
+    public void inMemory_keepsTotalsWithoutFile() throws IOException {
+        StepHistoryStore store = StepHistoryStore.inMemory(UTC, 2);
+        store.addSteps(MONDAY, 10);
+        store.addSteps(MONDAY + 2 * DAY, 20);
+        store.flush();
+        int monday = store.localDay(MONDAY);
+        assertEquals(0, store.getDayTotal(monday));
+        assertEquals(20, store.getDayTotal(monday + 2));
+    }
+}
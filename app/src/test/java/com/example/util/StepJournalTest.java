@@ -0,0 +1,137 @@
+package com.example.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StepJournal}, including the number of disk writes per
+ * 1,000 steps at walking pace.
+ */
+public class StepJournalTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("step_journal", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void reopen_recoversLastCheckpoint() throws IOException {
+        StepJournal journal = new StepJournal(file, 0);
+        assertTrue(journal.isEmpty());
+        for (int i = 1; i <= 20; i++) {
+            journal.update(i, 1000, 1000 + i, i * 1000L, 1700000000000L + i);
+            journal.checkpoint(i * 1000L);
+        }
+
+        StepJournal reopened = new StepJournal(file, 0);
+        assertFalse(reopened.isEmpty());
+        assertEquals(20, reopened.getCurrentStep());
+        assertEquals(1000, reopened.getStepOffset());
+        assertEquals(1020, reopened.getLastSensorStep());
+        assertEquals(20000L, reopened.getElapsedRealtime());
+        assertEquals(1700000000020L, reopened.getWallTime());
+    }
+
+    @Test
+    public void tornWrite_fallsBackToPreviousCheckpoint() throws IOException {
+        StepJournal journal = new StepJournal(file, 0);
+        for (int i = 1; i <= 11; i++) {
+            journal.update(i, 0, i, i, i);
+            journal.checkpoint(i);
+        }
+        // corrupt the latest record (sequence 11) in the middle of its payload
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(11 % StepJournal.SLOTS * StepJournal.RECORD_SIZE + 10);
+            raf.write(0x7F);
+        }
+        assertEquals(10, new StepJournal(file, 0).getCurrentStep());
+    }
+
+    @Test
+    public void file_hasFixedSize() throws IOException {
+        StepJournal journal = new StepJournal(file, 0);
+        for (int i = 1; i <= 100; i++) {
+            journal.update(i, 0, i, i, i);
+            journal.checkpoint(i);
+        }
+        assertEquals(StepJournal.SLOTS * StepJournal.RECORD_SIZE, file.length());
+    }
+
+    @Test
+    public void legacyFile_isRecoveredAndRewritten() throws IOException {
+        // one record in the layout without the boot count, with its CRC32
+        ByteBuffer record = ByteBuffer.allocate(StepJournal.LEGACY_RECORD_SIZE);
+        record.putLong(1).putInt(42).putInt(900).putInt(942).putLong(5000).putLong(1700000000000L);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, StepJournal.LEGACY_RECORD_SIZE - 4);
+        record.putInt((int) crc.getValue());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength((long) StepJournal.SLOTS * StepJournal.LEGACY_RECORD_SIZE);
+            raf.seek(StepJournal.LEGACY_RECORD_SIZE);
+            raf.write(record.array());
+        }
+
+        new StepJournal(file, 0);
+        assertEquals(StepJournal.SLOTS * StepJournal.RECORD_SIZE, file.length());
+        StepJournal reopened = new StepJournal(file, 0);
+        assertEquals(42, reopened.getCurrentStep());
+        assertEquals(942, reopened.getLastSensorStep());
+        assertEquals(StepReconciler.UNKNOWN, reopened.getBootCount());
+    }
+
+    @Test
+    public void maybeCheckpoint_waitsForInterval() throws IOException {
+        StepJournal journal = new StepJournal(file, 30000);
+        journal.update(1, 0, 1, 0, 0);
+        assertTrue(journal.maybeCheckpoint(0));
+        journal.update(2, 0, 2, 1000, 0);
+        assertFalse(journal.maybeCheckpoint(1000));
+        assertTrue(journal.maybeCheckpoint(30000));
+        // nothing changed, nothing written
+        assertFalse(journal.maybeCheckpoint(90000));
+        assertEquals(2, journal.getWriteCount());
+    }
+
+    @Test
+    public void inMemory_keepsStateWithoutFile() throws IOException {
+        StepJournal journal = StepJournal.inMemory(0);
+        assertTrue(journal.isEmpty());
+        journal.update(42, 7, 49, 1000, 2000);
+        journal.checkpoint(1000);
+        journal.flush(2000);
+        assertFalse(journal.isEmpty());
+        assertEquals(42, journal.getCurrentStep());
+        assertEquals(7, journal.getStepOffset());
+    }
+
+    @Test
+    public void walking_checkpointsOncePerInterval() throws IOException {
+        // walking pace: one step counter event every 600 ms
+        StepJournal journal = new StepJournal(file, StepJournal.DEFAULT_CHECKPOINT_INTERVAL);
+        long now = 0;
+        for (int step = 1; step <= 1000; step++) {
+            now += 600;
+            journal.update(step, 5000, 5000 + step, now, now);
+            journal.maybeCheckpoint(now);
+        }
+        journal.flush(now);
+        // every event used to apply() three preferences, each one rewriting the XML file
+        assertTrue(journal.getWriteCount() <= 1000 * 600 / StepJournal.DEFAULT_CHECKPOINT_INTERVAL + 1);
+        assertEquals(1000, journal.getCurrentStep());
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StepReconciler}. The replay harness feeds recorded counter traces
+ * through the reconciler and a {@link StepJournal}, the way StepCounter does, and checks today's
+ * steps after reboots, midnight crossings, service restarts and process kills.
+ * <p>
+ * Trace lines: {@code counter,value,elapsed_s,boot_count[,boot]}, {@code midnight},
+ * {@code restart} (state flushed, then reloaded), {@code kill} (reloaded from the last
+ * checkpoint) and {@code expect,steps}.
+ */
+public class StepReconcilerTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("step_journal", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void replay_reboot() throws IOException {
+        replay("step_traces/reboot.csv");
+    }
+
+    @Test
+    public void replay_rebootWithoutBootCount() throws IOException {
+        replay("step_traces/reboot_unknown_boot_count.csv");
+    }
+
+    @Test
+    public void replay_midnightAndRestarts() throws IOException {
+        replay("step_traces/midnight_and_restarts.csv");
+    }
+
+    @Test
+    public void firstValue_isReference() {
+        StepReconciler reconciler = new StepReconciler(0, StepReconciler.UNKNOWN, StepReconciler.UNKNOWN, 0);
+        assertFalse(reconciler.onCounter(12000, 1000, 4, false));
+        assertEquals(0, reconciler.getCurrentStep());
+        reconciler.onCounter(12010, 2000, 4, false);
+        assertEquals(10, reconciler.getCurrentStep());
+        assertEquals(12000, reconciler.getStepOffset());
+    }
+
+    @Test
+    public void knownBootCount_overridesHints() {
+        StepReconciler reconciler = new StepReconciler(100, 5000, 4, 60000);
+        // same boot: a late boot broadcast does not count the steps twice
+        assertFalse(reconciler.onCounter(5100, 70000, 4, true));
+        assertEquals(200, reconciler.getCurrentStep());
+        // new boot with more steps than before and a longer uptime
+        assertTrue(reconciler.onCounter(9000, 900000, 5, false));
+        assertEquals(9200, reconciler.getCurrentStep());
+        assertEquals(1, reconciler.getRestartCount());
+    }
+
+    // replay a trace, checking every expected count
+    private void replay(String name) throws IOException {
+        StepJournal journal = new StepJournal(file, StepJournal.DEFAULT_CHECKPOINT_INTERVAL);
+        StepReconciler reconciler = load(journal);
+        long now = 0;
+        int entry = 0;
+        for (String line : readTrace(name)) {
+            entry++;
+            String[] fields = line.split(",");
+            switch (fields[0]) {
+                case "counter":
+                    now = Long.parseLong(fields[2]) * 1000;
+                    boolean restarted = reconciler.onCounter(Integer.parseInt(fields[1]), now,
+                            Integer.parseInt(fields[3]), fields.length > 4 && fields[4].equals("boot"));
+                    save(journal, reconciler, now, restarted);
+                    break;
+                case "midnight":
+                    reconciler.startNewDay();
+                    save(journal, reconciler, now, true);
+                    break;
+                case "restart":
+                    journal.flush(now);
+                    journal = new StepJournal(file, StepJournal.DEFAULT_CHECKPOINT_INTERVAL);
+                    reconciler = load(journal);
+                    break;
+                case "kill":
+                    journal = new StepJournal(file, StepJournal.DEFAULT_CHECKPOINT_INTERVAL);
+                    reconciler = load(journal);
+                    break;
+                case "expect":
+                    assertEquals(name + " entry " + entry, Integer.parseInt(fields[1]), reconciler.getCurrentStep());
+                    break;
+                default:
+                    fail(name + " entry " + entry + ": unknown event " + fields[0]);
+            }
+        }
+    }
+
+    private static StepReconciler load(StepJournal journal) {
+        if (journal.isEmpty()) {
+            return new StepReconciler(0, StepReconciler.UNKNOWN, StepReconciler.UNKNOWN, 0);
+        }
+        return new StepReconciler(journal.getCurrentStep(), journal.getLastSensorStep(),
+                journal.getBootCount(), journal.getElapsedRealtime());
+    }
+
+    // same as StepCounter.saveState
+    private static void save(StepJournal journal, StepReconciler reconciler, long now, boolean force) throws IOException {
+        journal.update(reconciler.getCurrentStep(), reconciler.getStepOffset(), reconciler.getLastCounter(),
+                reconciler.getBootCount(), reconciler.getLastElapsedRealtime(), now);
+        if (force) {
+            journal.checkpoint(now);
+        } else {
+            journal.maybeCheckpoint(now);
+        }
+    }
+
+    // trace lines without blank lines and comments, in the order of the file
+    private List<String> readTrace(String name) throws IOException {
+        InputStream stream = getClass().getClassLoader().getResourceAsStream(name);
+        assertNotNull("missing trace " + name, stream);
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+}